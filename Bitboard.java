@@ -0,0 +1,85 @@
+/**
+ * 3x3 board packed into one int: X's cells in bits 0-8, O's cells in bits 9-17.
+ * Cell index is row * 3 + col. All methods are pure, so boards can be shared freely between threads.
+ */
+public final class Bitboard {
+    public static final int SIZE = 3;
+    public static final int CELLS = 9;
+    public static final int EMPTY = 0;
+
+    private static final int CELL_MASK = (1 << CELLS) - 1;
+    private static final int O_SHIFT = CELLS;
+
+    // Rows, columns, diagonals
+    private static final int[] WIN_MASKS = {
+            0b000_000_111, 0b000_111_000, 0b111_000_000,
+            0b001_001_001, 0b010_010_010, 0b100_100_100,
+            0b100_010_001, 0b001_010_100
+    };
+    // WINNING[marks] is true if the 9-bit set of one player's cells covers a win mask
+    private static final boolean[] WINNING = new boolean[1 << CELLS];
+
+    static {
+        for (int marks = 0; marks < WINNING.length; marks++) {
+            for (int mask : WIN_MASKS) {
+                if ((marks & mask) == mask) {
+                    WINNING[marks] = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    private Bitboard() {
+    }
+
+    /**
+     * Returns the cell index for a row and column, or -1 if they are off the board
+     */
+    public static int cell(int row, int col) {
+        if (row < 0 || row >= SIZE || col < 0 || col >= SIZE) return -1;
+        return row * SIZE + col;
+    }
+
+    /**
+     * Returns the 9-bit set of cells holding the given mark
+     */
+    public static int marks(int board, char mark) {
+        return mark == 'O' ? (board >>> O_SHIFT) & CELL_MASK : board & CELL_MASK;
+    }
+
+    /**
+     * Returns the 9-bit set of occupied cells
+     */
+    public static int occupied(int board) {
+        return (board | (board >>> O_SHIFT)) & CELL_MASK;
+    }
+
+    public static boolean isEmpty(int board, int cell) {
+        return (occupied(board) & (1 << cell)) == 0;
+    }
+
+    /**
+     * Returns the board with the mark placed; the caller checks the cell is empty
+     */
+    public static int place(int board, int cell, char mark) {
+        return board | (1 << (mark == 'O' ? cell + O_SHIFT : cell));
+    }
+
+    /**
+     * Returns 'X', 'O' or ' ' for the cell
+     */
+    public static char markAt(int board, int cell) {
+        if ((board & (1 << cell)) != 0) return 'X';
+        if ((board & (1 << (cell + O_SHIFT))) != 0) return 'O';
+        return ' ';
+    }
+
+    public static boolean isWin(int board, char mark) {
+        return WINNING[marks(board, mark)];
+    }
+
+    public static boolean isFull(int board) {
+        return Integer.bitCount(occupied(board)) == CELLS;
+    }
+}
@@ -0,0 +1,128 @@
+import java.util.Random;
+
+/**
+ * Compares {@link Bitboard} win and full-board detection with the {@code char[3][3]} scans it replaced.
+ * Plays random games to a random length, keeps each position in both forms, and times checking every
+ * position for an X win, an O win and a full board. Both forms are first checked to agree on every board.
+ */
+public class BitboardBenchmark {
+    // Keeps the JIT from dropping work whose result is never used
+    private static long sink;
+
+    /**
+     * @param args optional position count (default 100000) and passes over them per measurement (default 100)
+     */
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int passes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        verify();
+        int[] boards = new int[count];
+        char[][][] grids = new char[count][][];
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            boards[i] = randomGame(random);
+            grids[i] = grid(boards[i]);
+        }
+        // The first round warms up the JIT; the last one is the figure to read
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int pass = 0; pass < passes; pass++) {
+                for (char[][] grid : grids) {
+                    if (checkWin(grid, 'X')) sink++;
+                    if (checkWin(grid, 'O')) sink++;
+                    if (isBoardFull(grid)) sink++;
+                }
+            }
+            long gridNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int pass = 0; pass < passes; pass++) {
+                for (int board : boards) {
+                    if (Bitboard.isWin(board, 'X')) sink++;
+                    if (Bitboard.isWin(board, 'O')) sink++;
+                    if (Bitboard.isFull(board)) sink++;
+                }
+            }
+            long bitNanos = System.nanoTime() - start;
+            double checks = (double) count * passes;
+            System.out.printf("round %d: char[][] %.1f ns/position, bitboard %.1f ns/position, %.1fx%n",
+                    round + 1, gridNanos / checks, bitNanos / checks, gridNanos / (double) bitNanos);
+        }
+        System.out.println("checksum " + sink);
+    }
+
+    // Both forms must agree on all 3^9 boards, reachable or not
+    private static void verify() {
+        for (int code = 0; code < 19_683; code++) {
+            int board = Bitboard.EMPTY;
+            for (int cell = 0, rest = code; cell < Bitboard.CELLS; cell++, rest /= 3) {
+                if (rest % 3 == 1) board = Bitboard.place(board, cell, 'X');
+                if (rest % 3 == 2) board = Bitboard.place(board, cell, 'O');
+            }
+            char[][] grid = grid(board);
+            if (checkWin(grid, 'X') != Bitboard.isWin(board, 'X') || checkWin(grid, 'O') != Bitboard.isWin(board, 'O')
+                    || isBoardFull(grid) != Bitboard.isFull(board)) {
+                throw new IllegalStateException("bitboard and char[][] disagree on board " + code);
+            }
+        }
+    }
+
+    // A game of random legal moves, stopped at a random length or at its end
+    private static int randomGame(Random random) {
+        int board = Bitboard.EMPTY;
+        int moves = random.nextInt(Bitboard.CELLS + 1);
+        char mark = 'X';
+        for (int i = 0; i < moves; i++) {
+            int cell;
+            do {
+                cell = random.nextInt(Bitboard.CELLS);
+            } while (!Bitboard.isEmpty(board, cell));
+            board = Bitboard.place(board, cell, mark);
+            if (Bitboard.isWin(board, mark)) break;
+            mark = mark == 'X' ? 'O' : 'X';
+        }
+        return board;
+    }
+
+    private static char[][] grid(int board) {
+        char[][] grid = new char[Bitboard.SIZE][Bitboard.SIZE];
+        for (int cell = 0; cell < Bitboard.CELLS; cell++) {
+            grid[cell / Bitboard.SIZE][cell % Bitboard.SIZE] = Bitboard.markAt(board, cell);
+        }
+        return grid;
+    }
+
+    // The GameRoom scans the bitboard replaced, unchanged
+    private static boolean checkWin(char[][] board, char mark) {
+        // Rows
+        for (int i = 0; i < 3; i++) {
+            if (board[i][0] == mark && board[i][1] == mark && board[i][2] == mark) {
+                return true;
+            }
+        }
+        // Columns
+        for (int j = 0; j < 3; j++) {
+            if (board[0][j] == mark && board[1][j] == mark && board[2][j] == mark) {
+                return true;
+            }
+        }
+        // Diagonals
+        if (board[0][0] == mark && board[1][1] == mark && board[2][2] == mark) {
+            return true;
+        }
+        if (board[0][2] == mark && board[1][1] == mark && board[2][0] == mark) {
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isBoardFull(char[][] board) {
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                if (board[i][j] == ' ') {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,157 @@
+import java.util.Arrays;
+
+/**
+ * Mutable m,n,k board: rows x cols cells, k in a row wins, up to 19x19.
+ * Each player's stones are a bitset over cell index row * cols + col, so a 3x3 board has exactly the
+ * {@link Bitboard} layout in its first word. A win is found by scanning only the four lines through
+ * the last stone, which costs O(k) per move whatever the board size.
+ */
+public final class Board {
+    public static final int MIN_SIZE = 3;
+    public static final int MAX_SIZE = 19;
+
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    private final int rows, cols, winLength;
+    private final long[] xs, os;
+    private int moves = 0;
+
+    public Board(int rows, int cols, int winLength) {
+        if (rows < MIN_SIZE || rows > MAX_SIZE || cols < MIN_SIZE || cols > MAX_SIZE) {
+            throw new IllegalArgumentException("Board must be between 3x3 and 19x19: " + rows + "x" + cols);
+        }
+        if (winLength < MIN_SIZE || winLength > Math.max(rows, cols)) {
+            throw new IllegalArgumentException("Win length " + winLength + " does not fit " + rows + "x" + cols);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.winLength = winLength;
+        int words = (rows * cols + 63) / 64;
+        this.xs = new long[words];
+        this.os = new long[words];
+    }
+
+    /**
+     * Creates an independent copy, e.g. a snapshot for a search running on another thread
+     */
+    public Board(Board other) {
+        this.rows = other.rows;
+        this.cols = other.cols;
+        this.winLength = other.winLength;
+        this.xs = other.xs.clone();
+        this.os = other.os.clone();
+        this.moves = other.moves;
+    }
+
+    /**
+     * Creates the classic 3x3, three-in-a-row board
+     */
+    public Board() {
+        this(3, 3, 3);
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int cols() {
+        return cols;
+    }
+
+    public int winLength() {
+        return winLength;
+    }
+
+    /**
+     * Returns the cell index for a row and column, or -1 if they are off the board
+     */
+    public int cell(int row, int col) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) return -1;
+        return row * cols + col;
+    }
+
+    public boolean isEmpty(int cell) {
+        long bit = 1L << cell;
+        int word = cell >>> 6;
+        return ((xs[word] | os[word]) & bit) == 0;
+    }
+
+    /**
+     * Returns 'X', 'O' or ' ' for the cell
+     */
+    public char markAt(int cell) {
+        long bit = 1L << cell;
+        int word = cell >>> 6;
+        if ((xs[word] & bit) != 0) return 'X';
+        if ((os[word] & bit) != 0) return 'O';
+        return ' ';
+    }
+
+    /**
+     * Places a mark; the caller checks the cell is empty
+     */
+    public void place(int cell, char mark) {
+        long[] stones = mark == 'O' ? os : xs;
+        stones[cell >>> 6] |= 1L << cell;
+        moves++;
+    }
+
+    /**
+     * Takes a mark back off the board, undoing {@link #place}
+     */
+    public void remove(int cell, char mark) {
+        long[] stones = mark == 'O' ? os : xs;
+        stones[cell >>> 6] &= ~(1L << cell);
+        moves--;
+    }
+
+    /**
+     * Checks whether the stone just placed at (row, col) completes k in a row
+     */
+    public boolean isWinningMove(int row, int col, char mark) {
+        if (rows == 3 && cols == 3) {
+            return Bitboard.isWin(toBitboard(), mark);
+        }
+        long[] stones = mark == 'O' ? os : xs;
+        for (int[] d : DIRECTIONS) {
+            int run = 1 + count(stones, row, col, d[0], d[1]) + count(stones, row, col, -d[0], -d[1]);
+            if (run >= winLength) return true;
+        }
+        return false;
+    }
+
+    // Consecutive stones from (row, col) exclusive, stopping after k - 1
+    private int count(long[] stones, int row, int col, int dr, int dc) {
+        int n = 0;
+        int r = row + dr, c = col + dc;
+        while (n < winLength - 1 && r >= 0 && r < rows && c >= 0 && c < cols) {
+            int cell = r * cols + c;
+            if ((stones[cell >>> 6] & (1L << cell)) == 0) break;
+            n++;
+            r += dr;
+            c += dc;
+        }
+        return n;
+    }
+
+    public boolean isFull() {
+        return moves == rows * cols;
+    }
+
+    public int moveCount() {
+        return moves;
+    }
+
+    public void clear() {
+        Arrays.fill(xs, 0);
+        Arrays.fill(os, 0);
+        moves = 0;
+    }
+
+    /**
+     * Returns a 3x3 board in {@link Bitboard} form
+     */
+    public int toBitboard() {
+        return (int) xs[0] | (int) os[0] << Bitboard.CELLS;
+    }
+}
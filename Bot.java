@@ -0,0 +1,119 @@
+import java.util.concurrent.Executor;
+
+/**
+ * Engine-backed opponent that occupies a player seat.
+ * The room talks to it through the normal {@link Connection} calls; it keeps its own copy of the board from
+ * the frames it is sent and answers on the executor, never on the room's thread.
+ */
+public class Bot implements Connection {
+    private final Executor executor;
+    private final ParallelSearch search;
+    private final Protocol.Frame frame = new Protocol.Frame();
+    private final Server.Player player;
+    private Board board = new Board();
+    private char mark = 'O';
+
+    public Bot(Executor executor, ParallelSearch search) {
+        this.executor = executor;
+        this.search = search;
+        this.player = new Server.Player(this);
+        player.name = "Bot";
+        player.binary = true;
+    }
+
+    /**
+     * The seat this bot plays in
+     */
+    public Server.Player player() {
+        return player;
+    }
+
+    @Override
+    public void send(byte[] data, int offset, int length) {
+        // Every send is one frame; text lines still carry their newline, while a binary frame may end in 0x0A
+        if (Protocol.binaryLength(data[offset]) == 0 && data[offset + length - 1] == '\n') length--;
+        if (!Protocol.decode(data, offset, length, frame)) return;
+        switch (frame.opcode) {
+            case Protocol.START:
+                board = new Board(frame.boardRows, frame.boardCols, frame.winLength);
+                frame.width = frame.boardCols;
+                mark = frame.flag ? 'X' : 'O';
+                break;
+            case Protocol.UPDATE:
+                board.place(board.cell(frame.row, frame.col), frame.mark);
+                break;
+            case Protocol.RESET:
+                board.clear();
+                break;
+            case Protocol.SNAPSHOT:
+                // Seated in a recovered game: take over the position, then act as the snapshot says
+                if (!Protocol.applySnapshot(frame, board)) break;
+                if (frame.flag) {
+                    Board snapshot = new Board(board);
+                    executor.execute(() -> play(snapshot));
+                } else if (frame.code != 0) {
+                    executor.execute(this::restart);
+                }
+                break;
+            case Protocol.MESSAGE:
+                if (frame.code == Protocol.MSG_YOUR_TURN || frame.code == Protocol.MSG_OPPONENT_MOVED) {
+                    Board snapshot = new Board(board);
+                    executor.execute(() -> play(snapshot));
+                }
+                break;
+            case Protocol.GAMEOVER:
+                executor.execute(this::restart);
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Frames are acted on as they are sent
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    private void play(Board snapshot) {
+        int cell = chooseMove(snapshot, mark);
+        if (cell < 0) return;
+        Protocol.Frame command = new Protocol.Frame();
+        command.opcode = Protocol.MOVE;
+        command.row = cell / snapshot.cols();
+        command.col = cell % snapshot.cols();
+        deliver(command);
+    }
+
+    private void restart() {
+        Protocol.Frame command = new Protocol.Frame();
+        command.opcode = Protocol.RESTART;
+        command.flag = true;
+        deliver(command);
+    }
+
+    private void deliver(Protocol.Frame command) {
+        GameRoom room = player.room;
+        if (room != null) {
+            room.handle(player, command);
+        }
+    }
+
+    /**
+     * Picks a cell for the side to move: a table lookup on 3x3, a timed parallel search elsewhere
+     *
+     * @param board the position
+     * @param me    the mark to play
+     * @return the cell, or -1 if the board is full
+     */
+    private int chooseMove(Board board, char me) {
+        if (board.rows() == 3 && board.cols() == 3 && board.winLength() == 3) {
+            return Solver.bestMove(board.toBitboard());
+        }
+        return search.bestMove(board, me);
+    }
+}
@@ -0,0 +1,95 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how games/sec grows as {@link Server} nodes are added behind a {@link Router}.
+ * For each cluster size it starts that many node processes and a router process on this machine, runs the
+ * {@link LoadGenerator} against the router, and prints games/sec next to the single-node figure. Each node
+ * runs the NIO transport with its JVM told it has one processor, so a node stands for one core's worth of
+ * server and the scaling shows once the machine has a core per node plus some for the router and load.
+ */
+public class ClusterBenchmark {
+    private static final int ROUTER_PORT = 12400;
+    private static final int FIRST_NODE_PORT = 12401;
+    private static final long STARTUP_MILLIS = 30_000;
+
+    /**
+     * @param args "--nodes 1,2,4" cluster sizes to measure (default 1,2,4); "--players N" (default 200);
+     *             "--rate R" moves per second per player (default 200); "--seconds S" per size (default 10)
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> list = Arrays.asList(args);
+        int players = Integer.parseInt(option(list, "--players", "200"));
+        double rate = Double.parseDouble(option(list, "--rate", "200"));
+        long seconds = Long.parseLong(option(list, "--seconds", "10"));
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        double baseline = 0;
+        List<String> report = new ArrayList<>();
+        for (String size : option(list, "--nodes", "1,2,4").split(",")) {
+            int nodes = Integer.parseInt(size.trim());
+            List<Process> processes = new ArrayList<>();
+            try {
+                StringBuilder spec = new StringBuilder();
+                for (int id = 1; id <= nodes; id++) {
+                    int port = FIRST_NODE_PORT + id - 1;
+                    processes.add(start(List.of("-XX:ActiveProcessorCount=1"), "Server",
+                            "--port", String.valueOf(port), "--node", String.valueOf(id), "--nio"));
+                    spec.append(id > 1 ? "," : "").append(id).append("=127.0.0.1:").append(port);
+                    awaitPort(port);
+                }
+                processes.add(start(List.of(), "Router", "--port", String.valueOf(ROUTER_PORT), "--nodes", spec.toString()));
+                awaitPort(ROUTER_PORT);
+                System.out.println("== " + nodes + (nodes == 1 ? " node" : " nodes"));
+                double gamesPerSecond = new LoadGenerator(rate, threads).run(players, ROUTER_PORT, seconds);
+                if (baseline == 0) baseline = gamesPerSecond / nodes;
+                report.add(String.format("%d nodes: %.1f games/s, %.2fx one node", nodes, gamesPerSecond,
+                        gamesPerSecond / baseline));
+            } finally {
+                for (Process process : processes) {
+                    process.destroyForcibly().waitFor();
+                }
+            }
+        }
+        System.out.println();
+        report.forEach(System.out::println);
+        System.exit(0);
+    }
+
+    // Starts a class from this classpath in its own JVM, with its output discarded
+    private static Process start(List<String> jvmOptions, String mainClass, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.addAll(Arrays.asList(args));
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private static void awaitPort(int port) throws Exception {
+        long giveUp = System.currentTimeMillis() + STARTUP_MILLIS;
+        while (true) {
+            try {
+                new Socket(InetAddress.getLoopbackAddress(), port).close();
+                return;
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > giveUp) throw new IOException("Nothing listening on port " + port);
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static String option(List<String> args, String name, String fallback) {
+        int index = args.indexOf(name);
+        return index >= 0 && index + 1 < args.size() ? args.get(index + 1) : fallback;
+    }
+}
@@ -0,0 +1,51 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One client link, independent of the transport carrying it.
+ * All methods may be called from any thread.
+ */
+public interface Connection {
+    /**
+     * Queues already-encoded protocol bytes; the transport copies them before returning
+     *
+     * @param frame  encoded lines, newline included
+     * @param offset start of the data
+     * @param length number of bytes
+     */
+    void send(byte[] frame, int offset, int length);
+
+    /**
+     * Queues a pre-encoded frame such as one from {@link Protocol#encoded}
+     */
+    default void send(byte[] frame) {
+        send(frame, 0, frame.length);
+    }
+
+    /**
+     * Queues one free-text protocol line; only for lines that carry names or other variable text
+     *
+     * @param line the line without terminator
+     */
+    default void send(String line) {
+        send((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Puts everything queued since the last flush on the wire, ideally as one write.
+     * Callers send all the lines of one state change and then flush once.
+     */
+    void flush();
+
+    /**
+     * Bytes sent but not yet written to the peer, for writers that must not outrun a slow reader.
+     * Transports whose sends block until written report 0, as does a closed link.
+     */
+    default int pendingBytes() {
+        return 0;
+    }
+
+    /**
+     * Closes the link once everything already sent has been written
+     */
+    void close();
+}
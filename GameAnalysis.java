@@ -0,0 +1,373 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Offline analysis of recorded games: win rate by opening cell and average game length by rating band.
+ * Built to stream through journals of any size in fixed memory. Segments are mapped read-only and copied
+ * a chunk of records at a time into primitive columns; a single pass follows the interleaved games and
+ * packs every finished round into a batch of primitive arrays. Each full batch is replayed move by move
+ * on {@link Board}, whose last-move win check decides the result, in a parallel stream across all cores,
+ * and the per-thread tallies are merged. Only the games still open at the current point of the log are
+ * held on the heap.
+ */
+public class GameAnalysis {
+    private static final int CHUNK_RECORDS = 1 << 14;
+    private static final int BATCH_GAMES = 1 << 16;
+    private static final int BAND_WIDTH = 100;
+    private static final int BANDS = 40;
+    private static final int UNRATED = BANDS;
+    // Opening cells are counted by row and column on the largest board, so sizes can be mixed
+    private static final int CELLS = Board.MAX_SIZE * Board.MAX_SIZE;
+    // Set on a packed move made by seat 2
+    private static final int SEAT_2 = 1 << 15;
+
+    // A game whose current round has not finished yet
+    private static final class OpenGame {
+        int rows, cols, winLength;
+        final int[] ratings = new int[2];
+        // A seat's name while its NAME records may still follow; looked up and cleared when a round ends
+        final String[] names = new String[2];
+        short[] moves = new short[9];
+        int moveCount;
+    }
+
+    // Where ratings come from, or null to count every game as unrated
+    private final ProfileStore profiles;
+
+    // The chunk being decoded, as raw records and as columns
+    private final byte[] chunk = new byte[CHUNK_RECORDS * GameJournal.RECORD_SIZE];
+    private final ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+    private final CRC32C check = new CRC32C();
+    private final long[] gameIds = new long[CHUNK_RECORDS];
+    private final byte[] types = new byte[CHUNK_RECORDS];
+    private final byte[] seats = new byte[CHUNK_RECORDS];
+    private final short[] rows = new short[CHUNK_RECORDS];
+    private final short[] cols = new short[CHUNK_RECORDS];
+    private final short[] values = new short[CHUNK_RECORDS];
+    // PLAYER and NAME text, only read when there are ratings to look up
+    private final String[] texts = new String[CHUNK_RECORDS];
+
+    private final HashMap<Long, OpenGame> open = new HashMap<>();
+    private final ArrayDeque<OpenGame> spare = new ArrayDeque<>();
+
+    // Finished rounds waiting to be replayed; moves of round i are moves[moveStart[i] .. moveStart[i + 1])
+    private final int[] shapes = new int[BATCH_GAMES];
+    private final int[] moveStart = new int[BATCH_GAMES + 1];
+    private final byte[] recordedWinners = new byte[BATCH_GAMES];
+    private final byte[] bands = new byte[BATCH_GAMES];
+    private short[] moves = new short[BATCH_GAMES * 9];
+    private int batchSize = 0;
+
+    private final Tally total = new Tally();
+    private long records = 0;
+    private long abandoned = 0;
+    private long orphaned = 0;
+
+    /**
+     * Totals for some of the replayed rounds; each worker thread fills its own and they are merged
+     */
+    static final class Tally {
+        // By opening cell row * MAX_SIZE + col, from the side of the seat that moved first
+        final long[] opened = new long[CELLS];
+        final long[] openerWins = new long[CELLS];
+        final long[] openerLosses = new long[CELLS];
+        // By rating band of the pair, UNRATED last
+        final long[] bandGames = new long[BANDS + 1];
+        final long[] bandMoves = new long[BANDS + 1];
+        long games, moves, disagreements;
+        // Reused while consecutive rounds are on the same board size
+        private Board board;
+
+        // Replays round i of the batch
+        void add(GameAnalysis batch, int i) {
+            int shape = batch.shapes[i];
+            int rows = shape >>> 16, cols = (shape >>> 8) & 0xFF, winLength = shape & 0xFF;
+            if (board == null || board.rows() != rows || board.cols() != cols || board.winLength() != winLength) {
+                board = new Board(rows, cols, winLength);
+            } else {
+                board.clear();
+            }
+            int from = batch.moveStart[i], to = batch.moveStart[i + 1];
+            if (from == to) return;
+            int winner = 0;
+            for (int m = from; m < to; m++) {
+                int packed = batch.moves[m] & 0xFFFF;
+                int seat = (packed & SEAT_2) != 0 ? 2 : 1;
+                int cell = packed & ~SEAT_2;
+                if (!board.isEmpty(cell)) {
+                    winner = -1;
+                    break;
+                }
+                char mark = seat == 1 ? 'X' : 'O';
+                board.place(cell, mark);
+                if (board.isWinningMove(cell / cols, cell % cols, mark)) {
+                    winner = seat;
+                    break;
+                }
+            }
+            if (winner != batch.recordedWinners[i]) disagreements++;
+            int first = batch.moves[from] & 0xFFFF;
+            int opener = (first & SEAT_2) != 0 ? 2 : 1;
+            int cell = first & ~SEAT_2;
+            int opening = cell / cols * Board.MAX_SIZE + cell % cols;
+            opened[opening]++;
+            if (winner == opener) {
+                openerWins[opening]++;
+            } else if (winner > 0) {
+                openerLosses[opening]++;
+            }
+            int band = batch.bands[i];
+            bandGames[band]++;
+            bandMoves[band] += to - from;
+            games++;
+            moves += to - from;
+        }
+
+        void merge(Tally other) {
+            for (int c = 0; c < CELLS; c++) {
+                opened[c] += other.opened[c];
+                openerWins[c] += other.openerWins[c];
+                openerLosses[c] += other.openerLosses[c];
+            }
+            for (int b = 0; b <= BANDS; b++) {
+                bandGames[b] += other.bandGames[b];
+                bandMoves[b] += other.bandMoves[b];
+            }
+            games += other.games;
+            moves += other.moves;
+            disagreements += other.disagreements;
+        }
+    }
+
+    /**
+     * @param profiles player records to band games by rating, or null
+     */
+    public GameAnalysis(ProfileStore profiles) {
+        this.profiles = profiles;
+    }
+
+    /**
+     * Streams one journal directory through the analysis. Reading stops at the first missing or torn
+     * record, as {@link JournalReader} does.
+     */
+    public void add(Path directory) throws IOException {
+        for (Path path : GameJournal.segments(directory)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int slots = (int) (channel.size() / GameJournal.RECORD_SIZE);
+                for (int slot = 0; slot < slots; slot += CHUNK_RECORDS) {
+                    int count = Math.min(CHUNK_RECORDS, slots - slot);
+                    segment.get(slot * GameJournal.RECORD_SIZE, chunk, 0, count * GameJournal.RECORD_SIZE);
+                    int decoded = decode(count);
+                    follow(decoded);
+                    if (decoded < count) return;
+                }
+            }
+        }
+    }
+
+    // Turns the raw chunk into columns, stopping at the end of the log; returns the records decoded
+    private int decode(int count) {
+        for (int i = 0; i < count; i++) {
+            int base = i * GameJournal.RECORD_SIZE;
+            byte type = chunk[base + GameJournal.TYPE_AT];
+            if (type == 0) return i;
+            check.reset();
+            check.update(chunk, base, GameJournal.CHECKED_BYTES);
+            if ((int) check.getValue() != chunkBuffer.getInt(base + GameJournal.CHECKED_BYTES)) return i;
+            gameIds[i] = chunkBuffer.getLong(base + GameJournal.GAME_ID_AT);
+            types[i] = type;
+            seats[i] = chunk[base + GameJournal.SEAT_AT];
+            rows[i] = chunkBuffer.getShort(base + GameJournal.ROW_AT);
+            cols[i] = chunkBuffer.getShort(base + GameJournal.COL_AT);
+            values[i] = chunkBuffer.getShort(base + GameJournal.VALUE_AT);
+            // Only PLAYER and NAME records carry text, and only ratings need it
+            boolean named = type == GameJournal.PLAYER || type == GameJournal.NAME;
+            texts[i] = named && profiles != null ? GameJournal.text(chunkBuffer, i) : null;
+        }
+        return count;
+    }
+
+    // Follows the interleaved games through the decoded records, batching each finished round
+    private void follow(int count) {
+        records += count;
+        for (int i = 0; i < count; i++) {
+            long gameId = gameIds[i];
+            switch (types[i]) {
+                case GameJournal.START: {
+                    OpenGame game = open.get(gameId);
+                    if (game == null) {
+                        game = spare.isEmpty() ? new OpenGame() : spare.pop();
+                        open.put(gameId, game);
+                    }
+                    game.rows = rows[i];
+                    game.cols = cols[i];
+                    game.winLength = values[i];
+                    game.ratings[0] = -1;
+                    game.ratings[1] = -1;
+                    game.names[0] = null;
+                    game.names[1] = null;
+                    game.moveCount = 0;
+                    if (game.moves.length < game.rows * game.cols) game.moves = new short[game.rows * game.cols];
+                    break;
+                }
+                case GameJournal.PLAYER: {
+                    OpenGame game = open.get(gameId);
+                    if (game != null && (seats[i] == 1 || seats[i] == 2)) {
+                        game.ratings[seats[i] - 1] = -1;
+                        game.names[seats[i] - 1] = texts[i];
+                    }
+                    break;
+                }
+                case GameJournal.NAME: {
+                    // The rest of a name too long for its PLAYER record, which may have been in the last chunk
+                    OpenGame game = open.get(gameId);
+                    if (game != null && (seats[i] == 1 || seats[i] == 2) && game.names[seats[i] - 1] != null) {
+                        game.names[seats[i] - 1] += texts[i];
+                    }
+                    break;
+                }
+                case GameJournal.MOVE: {
+                    OpenGame game = open.get(gameId);
+                    if (game == null) {
+                        // Started before this journal, e.g. a game adopted by another node
+                        orphaned++;
+                        break;
+                    }
+                    int row = rows[i], col = cols[i];
+                    if (game.moveCount < game.moves.length && row >= 0 && row < game.rows && col >= 0 && col < game.cols) {
+                        game.moves[game.moveCount++] = (short) (row * game.cols + col | (seats[i] == 2 ? SEAT_2 : 0));
+                    }
+                    break;
+                }
+                case GameJournal.GAMEOVER: {
+                    OpenGame game = open.get(gameId);
+                    if (game != null) finished(game, seats[i]);
+                    break;
+                }
+                case GameJournal.RESET: {
+                    OpenGame game = open.get(gameId);
+                    if (game != null) game.moveCount = 0;
+                    break;
+                }
+                case GameJournal.END: {
+                    OpenGame game = open.remove(gameId);
+                    if (game != null) {
+                        if (game.moveCount > 0) abandoned++;
+                        spare.push(game);
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+    }
+
+    // Copies a finished round into the batch, replaying the batch first if it is full
+    private void finished(OpenGame game, int winnerSeat) {
+        if (batchSize == BATCH_GAMES || moveStart[batchSize] + game.moveCount > moves.length) {
+            replayBatch();
+            if (game.moveCount > moves.length) moves = new short[game.moveCount];
+        }
+        int start = moveStart[batchSize];
+        System.arraycopy(game.moves, 0, moves, start, game.moveCount);
+        shapes[batchSize] = game.rows << 16 | game.cols << 8 | game.winLength;
+        recordedWinners[batchSize] = (byte) winnerSeat;
+        // Names are complete once a round has been played
+        for (int seat = 0; seat < 2; seat++) {
+            if (game.names[seat] == null) continue;
+            Profiles.Profile profile = profiles.get(game.names[seat]);
+            game.ratings[seat] = profile != null ? profile.rating : -1;
+            game.names[seat] = null;
+        }
+        int low = Math.min(game.ratings[0], game.ratings[1]);
+        bands[batchSize] = (byte) (low < 0 ? UNRATED
+                : Math.min(BANDS - 1, (game.ratings[0] + game.ratings[1]) / 2 / BAND_WIDTH));
+        batchSize++;
+        moveStart[batchSize] = start + game.moveCount;
+        // The round is over; a RESET or END follows
+        game.moveCount = 0;
+    }
+
+    // Replays every round in the batch across all cores and empties it
+    private void replayBatch() {
+        if (batchSize == 0) return;
+        Tally tally = IntStream.range(0, batchSize).parallel()
+                .collect(Tally::new, (t, i) -> t.add(this, i), Tally::merge);
+        total.merge(tally);
+        batchSize = 0;
+    }
+
+    /**
+     * Replays whatever is still batched and returns the totals
+     */
+    public Tally finish() {
+        replayBatch();
+        return total;
+    }
+
+    /**
+     * Prints the report for the given journal directories.
+     *
+     * @param args journal directories, e.g. each node-id directory of a cluster, and optionally
+     *             "--profiles file" to band games by the players' ratings in that profile store
+     */
+    public static void main(String[] args) throws IOException {
+        List<String> list = new ArrayList<>(Arrays.asList(args));
+        ProfileStore profiles = null;
+        int profilesArg = list.indexOf("--profiles");
+        if (profilesArg >= 0 && profilesArg + 1 < list.size()) {
+            profiles = new ProfileStore(Paths.get(list.get(profilesArg + 1)));
+            list.subList(profilesArg, profilesArg + 2).clear();
+        }
+        if (list.isEmpty()) {
+            System.out.println("Usage: java GameAnalysis <journal dir>... [--profiles file]");
+            return;
+        }
+        GameAnalysis analysis = new GameAnalysis(profiles);
+        long start = System.nanoTime();
+        for (String directory : list) {
+            analysis.add(Paths.get(directory));
+        }
+        Tally tally = analysis.finish();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (profiles != null) profiles.close();
+
+        System.out.printf("records=%d games=%d moves=%d elapsed=%.2fs %.0f games/s %.0f records/s (%d cores)%n",
+                analysis.records, tally.games, tally.moves, seconds, tally.games / seconds, analysis.records / seconds,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("abandoned mid-game=%d moves without a start=%d replays disagreeing with the log=%d%n",
+                analysis.abandoned, analysis.orphaned, tally.disagreements);
+        System.out.println();
+        System.out.println("Opening   games  opener wins  opener losses  draws  opener win rate");
+        for (int c = 0; c < CELLS; c++) {
+            long games = tally.opened[c];
+            if (games == 0) continue;
+            long draws = games - tally.openerWins[c] - tally.openerLosses[c];
+            System.out.printf("%2d,%-2d  %8d  %11d  %13d  %5d  %14.1f%%%n", c / Board.MAX_SIZE, c % Board.MAX_SIZE,
+                    games, tally.openerWins[c], tally.openerLosses[c], draws, 100.0 * tally.openerWins[c] / games);
+        }
+        System.out.println();
+        System.out.println("Rating band   games  average moves");
+        for (int b = 0; b <= BANDS; b++) {
+            long games = tally.bandGames[b];
+            if (games == 0) continue;
+            String band = b == UNRATED ? "unrated" : b * BAND_WIDTH + "-" + ((b + 1) * BAND_WIDTH - 1)
+                    + (b == BANDS - 1 ? "+" : "");
+            System.out.printf("%-11s %7d  %13.2f%n", band, games, (double) tally.bandMoves[b] / games);
+        }
+    }
+}
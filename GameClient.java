@@ -0,0 +1,350 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Headless client side of the protocol.
+ * Connects, negotiates the binary wire format, keeps the board and turn in step with the server and
+ * reports every event to a {@link Listener}. The Swing client and the load generator both play through it.
+ * <p>
+ * If the link drops once the game has started, the client reconnects on its own with exponential backoff
+ * and resumes its seat with the session token; the server holds the seat meanwhile and answers with a
+ * snapshot of the game.
+ */
+public class GameClient {
+    /**
+     * Server events, delivered on the thread running {@link #run}
+     */
+    public interface Listener {
+        /**
+         * A game started; the board is new and empty
+         *
+         * @param opponent the other player's name
+         * @param player1  true if we are P1 and play 'X' first
+         */
+        void started(String opponent, boolean player1);
+
+        /**
+         * A mark was placed, by either player
+         */
+        void updated(int row, int col, char mark);
+
+        /**
+         * A status message; code is one of the Protocol.MSG_ ids, or 0 for free text
+         */
+        void message(int code, String text);
+
+        /**
+         * The game finished with Protocol.WIN, LOSE or DRAW; answer with {@link #restart}
+         */
+        void gameOver(int result);
+
+        /**
+         * Both players agreed to play again; the board is empty
+         */
+        void reset();
+
+        /**
+         * The session is over, because a player declined to restart or left
+         *
+         * @param text the server's explanation
+         */
+        void ended(String text);
+
+        /**
+         * The link dropped and the client will try again after the delay
+         *
+         * @param attempt     1 for the first retry
+         * @param delayMillis how long until the attempt
+         */
+        void reconnecting(int attempt, long delayMillis);
+
+        /**
+         * The seat was resumed and {@link #board()} replaced with the server's snapshot
+         *
+         * @param myTurn whether we move next
+         * @param result 0 while the game is on, else WIN, LOSE or DRAW for a finished game awaiting restart
+         * @param wins   games we won in this room
+         * @param losses games the opponent won
+         * @param draws  games drawn
+         */
+        void restored(boolean myTurn, int result, int wins, int losses, int draws);
+
+        /**
+         * Our career record as the server keeps it; sent with START and after every game
+         */
+        void stats(int wins, int losses, int draws);
+    }
+
+    // Reconnect backoff: the first retry delay, doubling up to the cap, giving up after the server's grace
+    private static final long RECONNECT_FIRST_MILLIS = 250;
+    private static final long RECONNECT_MAX_MILLIS = 8_000;
+    private static final long RECONNECT_GIVE_UP_MILLIS = 60_000;
+
+    private final String host;
+    private final int port;
+    // Replaced by the reader thread on reconnect
+    private volatile Socket socket;
+    private volatile OutputStream out;
+    private LineReader in;
+    private final Object sendLock = new Object();
+    private final Listener listener;
+    private final Protocol.Frame frame = new Protocol.Frame();
+    private final byte[] moveFrame = new byte[Protocol.MAX_UPDATE_LENGTH];
+    // Set once the server echoed our BINARY handshake; from then on we send binary frames
+    private volatile boolean binaryProtocol = false;
+
+    private volatile Board board = new Board();
+    private volatile boolean player1 = false;
+    private volatile boolean myTurn = false;
+    private volatile boolean gameActive = true;
+    // From the server's SESSION line; quoted by {@link #resume} to take the seat back
+    private volatile long sessionToken = 0;
+    // Set by disconnect(), so a closed socket is not mistaken for a dropped link
+    private volatile boolean closing = false;
+
+    /**
+     * Connects and sends the name line and binary handshake; call {@link #run} to start receiving
+     */
+    public GameClient(String host, int port, String name, Listener listener) throws IOException {
+        this(host, port, (name + "\n").getBytes(StandardCharsets.UTF_8), listener);
+    }
+
+    /**
+     * Reconnects to a game in progress, e.g. after the server restarted, instead of joining a new one.
+     * The server answers with START and the current board, or with END if the session is gone.
+     *
+     * @param token the {@link #sessionToken()} of the earlier connection
+     */
+    public static GameClient resume(String host, int port, long token, Listener listener) throws IOException {
+        GameClient client = new GameClient(host, port, Protocol.encodeResume(token), listener);
+        client.sessionToken = token;
+        return client;
+    }
+
+    /**
+     * Watches the game the named player is in. Events arrive as if we were P1, starting with START and a
+     * SNAPSHOT; moves sent from a spectating client are ignored by the server.
+     */
+    public static GameClient spectate(String host, int port, String player, Listener listener) throws IOException {
+        return new GameClient(host, port, Protocol.encodeSpectate(player), listener);
+    }
+
+    private GameClient(String host, int port, byte[] line, Listener listener) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.listener = listener;
+        connect(line);
+    }
+
+    // Opens a fresh socket and sends the first line with the binary handshake in the same write
+    private void connect(byte[] line) throws IOException {
+        Socket next = new Socket(host, port);
+        next.setTcpNoDelay(true);
+        binaryProtocol = false;
+        in = new LineReader(next.getInputStream(), 4096);
+        out = new BufferedOutputStream(next.getOutputStream());
+        socket = next;
+        byte[] hello = Arrays.copyOf(line, line.length + Protocol.BINARY_HANDSHAKE.length);
+        System.arraycopy(Protocol.BINARY_HANDSHAKE, 0, hello, line.length, Protocol.BINARY_HANDSHAKE.length);
+        send(hello, hello.length);
+    }
+
+    /**
+     * The board as the server last described it; owned by the reader thread
+     */
+    public Board board() {
+        return board;
+    }
+
+    public boolean isPlayer1() {
+        return player1;
+    }
+
+    public char mark() {
+        return player1 ? 'X' : 'O';
+    }
+
+    public boolean isMyTurn() {
+        return myTurn && gameActive;
+    }
+
+    /**
+     * The token that lets this player resume its game from a new connection, or 0 before the game starts
+     */
+    public long sessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * Reads and dispatches server lines until the session ends, reconnecting whenever the link drops
+     * mid-game; returns once the session is over, we disconnect, or reconnecting gives up
+     */
+    public void run() {
+        while (true) {
+            try {
+                int length;
+                while ((length = in.readLine()) >= 0) {
+                    if (!Protocol.decode(in.buffer(), 0, length, frame)) {
+                        continue;
+                    }
+                    if (!dispatch()) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                // Closed by us, by the server, or by the network
+            }
+            if (closing || sessionToken == 0 || !reconnect()) {
+                return;
+            }
+        }
+    }
+
+    // Retries with jittered exponential backoff until a RESUME goes out or the grace window has passed
+    private boolean reconnect() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        myTurn = false;
+        long giveUp = System.currentTimeMillis() + RECONNECT_GIVE_UP_MILLIS;
+        long delay = RECONNECT_FIRST_MILLIS;
+        for (int attempt = 1; !closing && System.currentTimeMillis() < giveUp; attempt++) {
+            // Jitter spreads out the clients a server restart cut off at the same moment
+            long wait = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            listener.reconnecting(attempt, wait);
+            try {
+                Thread.sleep(wait);
+                if (closing) return false;
+                connect(Protocol.encodeResume(sessionToken));
+                return true;
+            } catch (IOException e) {
+                delay = Math.min(delay * 2, RECONNECT_MAX_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // Applies one decoded frame; false once the session is over
+    private boolean dispatch() {
+        switch (frame.opcode) {
+            case Protocol.BINARY:
+                binaryProtocol = frame.code >= Protocol.BINARY_VERSION;
+                break;
+            case Protocol.START:
+                player1 = frame.flag;
+                board = new Board(frame.boardRows, frame.boardCols, frame.winLength);
+                frame.width = frame.boardCols;
+                gameActive = true;
+                listener.started(frame.text(), player1);
+                break;
+            case Protocol.SESSION:
+                sessionToken = frame.token;
+                break;
+            case Protocol.PING:
+                send(Protocol.PONG_REPLY, Protocol.PONG_REPLY.length);
+                break;
+            case Protocol.STATS:
+                listener.stats(frame.wins, frame.losses, frame.draws);
+                break;
+            case Protocol.SNAPSHOT: {
+                Board restored = new Board(board.rows(), board.cols(), board.winLength());
+                if (!Protocol.applySnapshot(frame, restored)) break;
+                board = restored;
+                myTurn = frame.flag;
+                gameActive = frame.code == 0;
+                listener.restored(frame.flag, frame.code, frame.wins, frame.losses, frame.draws);
+                break;
+            }
+            case Protocol.UPDATE:
+                board.place(board.cell(frame.row, frame.col), frame.mark);
+                listener.updated(frame.row, frame.col, frame.mark);
+                break;
+            case Protocol.MESSAGE:
+                if (frame.code == Protocol.MSG_YOUR_TURN || frame.code == Protocol.MSG_OPPONENT_MOVED) {
+                    myTurn = true;
+                } else if (frame.code == Protocol.MSG_WAIT || frame.code == Protocol.MSG_VALID_MOVE) {
+                    myTurn = false;
+                }
+                listener.message(frame.code, frame.code != 0 ? Protocol.message(frame.code) : frame.text());
+                break;
+            case Protocol.GAMEOVER:
+                gameActive = false;
+                listener.gameOver(frame.code);
+                break;
+            case Protocol.RESET:
+                board.clear();
+                gameActive = true;
+                listener.reset();
+                break;
+            case Protocol.END:
+            case Protocol.OPPONENT_LEFT:
+                gameActive = false;
+                listener.ended(frame.text());
+                return false;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Sends a move if it is legal right now
+     *
+     * @return false if it is not our turn or the cell is taken
+     */
+    public boolean move(int row, int col) {
+        Board current = board;
+        int cell = current.cell(row, col);
+        if (!isMyTurn() || cell < 0 || !current.isEmpty(cell)) {
+            return false;
+        }
+        synchronized (moveFrame) {
+            int length = Protocol.encodeMove(moveFrame, row, col, binaryProtocol, current.cols());
+            send(moveFrame, length);
+        }
+        return true;
+    }
+
+    /**
+     * Answers the play-again question after a game over
+     */
+    public void restart(boolean yes) {
+        byte[] data = Protocol.encodeRestart(yes, binaryProtocol);
+        send(data, data.length);
+    }
+
+    /**
+     * Tells the server we are leaving and closes the socket
+     */
+    public void disconnect() {
+        closing = true;
+        byte[] data = Protocol.encodeDisconnect(binaryProtocol);
+        send(data, data.length);
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // ignore
+        }
+    }
+
+    private void send(byte[] data, int length) {
+        synchronized (sendLock) {
+            try {
+                out.write(data, 0, length);
+                out.flush();
+            } catch (IOException e) {
+                // The reader sees the broken socket and returns
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of every game event, for disputes, analytics and recovery.
+ * Each event is one fixed-size {@link #RECORD_SIZE}-byte record, checksummed, written into a memory-mapped
+ * segment file; a full segment is synced and the next one mapped. Appending is a 64-byte copy under a
+ * short lock. A background thread forces dirty pages to disk every sync interval, so one fsync commits
+ * every record written since the last, and a crash of the process itself loses nothing that was appended.
+ * <p>
+ * Record layout, big-endian: game id (8), time millis (8), token (8), type (1), seat (1), row (2), col (2),
+ * value (2), text length (1), text (27), CRC32C of the preceding 60 bytes (4). A zero type ends the log.
+ * A player name too long for one record continues in NAME records written right after its PLAYER record.
+ */
+public class GameJournal implements Closeable {
+    public static final int RECORD_SIZE = 64;
+    public static final int TEXT_CAPACITY = 27;
+
+    // Record types
+    public static final byte START = 1, PLAYER = 2, MOVE = 3, GAMEOVER = 4, RESTART = 5, RESET = 6, END = 7,
+            NAME = 8;
+    // END values
+    public static final int END_DECLINED = 1, END_LEFT = 2;
+
+    // Field offsets within a record, for readers that decode fields on their own
+    static final int GAME_ID_AT = 0, TIME_AT = 8, TOKEN_AT = 16, TYPE_AT = 24, SEAT_AT = 25, ROW_AT = 26,
+            COL_AT = 28, VALUE_AT = 30, TEXT_LENGTH_AT = 32, TEXT_AT = 33;
+
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_SUFFIX = ".log";
+    static final int CHECKED_BYTES = RECORD_SIZE - 4;
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final ScheduledExecutorService syncer;
+    private final byte[] scratch = new byte[RECORD_SIZE];
+    private final ByteBuffer record = ByteBuffer.wrap(scratch);
+    private final CRC32C crc = new CRC32C();
+
+    // Guarded by this
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int segmentUsed;
+    private long nextIndex;
+    private boolean dirty;
+
+    /**
+     * Opens the journal in the directory, continuing after the last valid record if it already exists
+     *
+     * @param directory      where segments live; created if missing
+     * @param segmentRecords records per segment file
+     * @param syncMillis     group commit interval
+     */
+    public GameJournal(Path directory, int segmentRecords, long syncMillis) throws IOException {
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        Files.createDirectories(directory);
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty()) {
+            openSegment(0);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            openSegment(segmentStart(last));
+            // Skip what an earlier run already wrote
+            Record scan = new Record();
+            while (segmentUsed < segmentRecords && read(segment, segmentUsed, scan)) {
+                segmentUsed++;
+            }
+            nextIndex += segmentUsed;
+        }
+        syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * One decoded record; readers reuse a single instance
+     */
+    public static final class Record {
+        public long index;
+        public long gameId;
+        public long timeMillis;
+        public long token;
+        public byte type;
+        public int seat;
+        public int row;
+        public int col;
+        public int value;
+        public String text;
+
+        @Override
+        public String toString() {
+            String name;
+            switch (type) {
+                case START: name = "START " + row + "x" + col + " k=" + value; break;
+                case PLAYER: name = "PLAYER P" + seat + " " + text; break;
+                case NAME: name = "NAME P" + seat + " ..." + text; break;
+                case MOVE: name = "MOVE P" + seat + " " + row + " " + col; break;
+                case GAMEOVER: name = seat == 0 ? "GAMEOVER draw" : "GAMEOVER P" + seat + " wins"; break;
+                case RESTART: name = "RESTART P" + seat + (value != 0 ? " yes" : " no"); break;
+                case RESET: name = "RESET"; break;
+                case END: name = "END P" + seat + (value == END_LEFT ? " left" : " declined"); break;
+                default: name = "type " + type; break;
+            }
+            return "#" + index + " game " + gameId + " @" + timeMillis + " " + name;
+        }
+    }
+
+    /**
+     * A game began on a rows x cols board with k in a row to win
+     */
+    public void start(long gameId, int rows, int cols, int k) {
+        append(gameId, START, 0, rows, cols, k, 0, null, 0, 0);
+    }
+
+    /**
+     * Who sits in a seat; the name is split across as many records as it needs, on character boundaries
+     */
+    public void player(long gameId, int seat, long token, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int end = textEnd(bytes, 0);
+        append(gameId, PLAYER, seat, 0, 0, 0, token, bytes, 0, end);
+        while (end < bytes.length) {
+            int start = end;
+            end = textEnd(bytes, start);
+            append(gameId, NAME, seat, 0, 0, 0, 0, bytes, start, end - start);
+        }
+    }
+
+    // End of the longest run of whole UTF-8 characters from start that fits one record's text
+    private static int textEnd(byte[] bytes, int start) {
+        int end = Math.min(bytes.length, start + TEXT_CAPACITY);
+        while (end < bytes.length && end > start && (bytes[end] & 0xC0) == 0x80) end--;
+        return end;
+    }
+
+    public void move(long gameId, int seat, int row, int col) {
+        append(gameId, MOVE, seat, row, col, 0, 0, null, 0, 0);
+    }
+
+    /**
+     * @param winnerSeat 1 or 2, or 0 for a draw
+     */
+    public void gameOver(long gameId, int winnerSeat) {
+        append(gameId, GAMEOVER, winnerSeat, 0, 0, 0, 0, null, 0, 0);
+    }
+
+    public void restart(long gameId, int seat, boolean yes) {
+        append(gameId, RESTART, seat, 0, 0, yes ? 1 : 0, 0, null, 0, 0);
+    }
+
+    public void reset(long gameId) {
+        append(gameId, RESET, 0, 0, 0, 0, 0, null, 0, 0);
+    }
+
+    /**
+     * @param seat   the seat that declined or left
+     * @param reason {@link #END_DECLINED} or {@link #END_LEFT}
+     */
+    public void end(long gameId, int seat, int reason) {
+        append(gameId, END, seat, 0, 0, reason, 0, null, 0, 0);
+    }
+
+    private synchronized void append(long gameId, byte type, int seat, int row, int col, int value, long token,
+                                     byte[] text, int textOffset, int textLength) {
+        if (segment == null) return;
+        record.clear();
+        record.putLong(gameId).putLong(System.currentTimeMillis()).putLong(token)
+                .put(type).put((byte) seat).putShort((short) row).putShort((short) col).putShort((short) value);
+        record.put((byte) textLength);
+        if (textLength > 0) {
+            record.put(text, textOffset, textLength);
+        }
+        // Zero the rest of the text so the checksum only depends on the record
+        while (record.position() < CHECKED_BYTES) record.put((byte) 0);
+        crc.reset();
+        crc.update(scratch, 0, CHECKED_BYTES);
+        record.putInt((int) crc.getValue());
+        try {
+            if (segmentUsed == segmentRecords) {
+                rotate();
+            }
+            segment.position(segmentUsed * RECORD_SIZE);
+            segment.put(scratch);
+            segmentUsed++;
+            nextIndex++;
+            dirty = true;
+        } catch (IOException e) {
+            // Keep the game running without a journal rather than failing moves
+            e.printStackTrace();
+            segment = null;
+        }
+    }
+
+    private void rotate() throws IOException {
+        segment.force();
+        channel.close();
+        openSegment(nextIndex);
+    }
+
+    private void openSegment(long firstIndex) throws IOException {
+        Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, firstIndex, SEGMENT_SUFFIX));
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) segmentRecords * RECORD_SIZE);
+        segmentUsed = 0;
+        nextIndex = firstIndex;
+    }
+
+    /**
+     * Forces everything appended so far to disk; runs every sync interval
+     */
+    public void sync() {
+        MappedByteBuffer toSync;
+        synchronized (this) {
+            if (!dirty || segment == null) return;
+            dirty = false;
+            toSync = segment;
+        }
+        // Outside the lock, so appends carry on while the disk catches up
+        toSync.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        syncer.shutdown();
+        synchronized (this) {
+            if (segment != null) {
+                segment.force();
+                segment = null;
+            }
+            channel.close();
+        }
+    }
+
+    /**
+     * Decodes the record in the slot if it is present and intact
+     *
+     * @return false at the end of the written log or on a torn record
+     */
+    static boolean read(ByteBuffer segment, int slot, Record into) {
+        if (!intact(segment, slot, new CRC32C())) return false;
+        int base = slot * RECORD_SIZE;
+        into.gameId = segment.getLong(base + GAME_ID_AT);
+        into.timeMillis = segment.getLong(base + TIME_AT);
+        into.token = segment.getLong(base + TOKEN_AT);
+        into.type = segment.get(base + TYPE_AT);
+        into.seat = segment.get(base + SEAT_AT);
+        into.row = segment.getShort(base + ROW_AT);
+        into.col = segment.getShort(base + COL_AT);
+        into.value = segment.getShort(base + VALUE_AT);
+        into.text = text(segment, slot);
+        return true;
+    }
+
+    /**
+     * Whether the slot holds a written record with a matching checksum
+     *
+     * @param check reused by the caller across calls
+     */
+    static boolean intact(ByteBuffer segment, int slot, CRC32C check) {
+        int base = slot * RECORD_SIZE;
+        if (segment.get(base + TYPE_AT) == 0) return false;
+        check.reset();
+        ByteBuffer body = segment.duplicate();
+        body.limit(base + CHECKED_BYTES).position(base);
+        check.update(body);
+        return (int) check.getValue() == segment.getInt(base + CHECKED_BYTES);
+    }
+
+    /**
+     * The text field of the record in the slot, or null if it has none
+     */
+    static String text(ByteBuffer segment, int slot) {
+        int base = slot * RECORD_SIZE;
+        int textLength = segment.get(base + TEXT_LENGTH_AT);
+        if (textLength <= 0) return null;
+        byte[] text = new byte[textLength];
+        segment.get(base + TEXT_AT, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Segment files in log order
+     */
+    static List<Path> segments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) return new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Index of the first record in a segment, from its file name
+     */
+    static long segmentStart(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
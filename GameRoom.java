@@ -0,0 +1,540 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One match between two connected players.
+ * Holds its own board, turn and restart state so many rooms can run side by side.
+ * Transports feed it lines through {@link #handle}; it never touches sockets directly.
+ * <p>
+ * The room is an actor: every call queues a command, and whichever thread finds the queue idle drains it,
+ * one command at a time, until it is empty again. Room state is only ever touched by that single drainer,
+ * so two players' lines can arrive on any threads without a lock and are applied in a total order.
+ * <p>
+ * A seat whose connection drops, or that was rebuilt after a restart, is held by a detached placeholder
+ * for a grace window. If its player comes back with the session token from START in time,
+ * {@link #resume} puts the new connection in the seat and sends it a snapshot of the game.
+ * <p>
+ * Any number of {@link Spectator}s can watch. They see the game from P1's side: a START header, a
+ * SNAPSHOT, then every UPDATE, GAMEOVER and RESET. Each event is encoded once and the same bytes are
+ * handed to every spectator's bounded queue, so the players' path does not grow with the audience.
+ */
+public class GameRoom {
+    private final Queue<Command> commands = new ConcurrentLinkedQueue<>();
+    // Commands queued but not yet applied; the thread that moves it off zero is the drainer
+    private final AtomicInteger pending = new AtomicInteger();
+    // Replaced only by the drainer, when a player resumes
+    private Server.Player p1, p2;
+    private final Board board;
+    private final long gameId;
+    // Null when the server runs without a journal
+    private final GameJournal journal;
+    // Null when the server keeps no player profiles
+    private final Profiles profiles;
+    private final ServerMetrics metrics;
+    private final ScheduledExecutorService timer;
+    private final long graceMillis;
+    private boolean p1Turn = true;
+    private boolean gameOver = false;
+    private boolean waitingForRestart = false;
+    private String p1Choice = null, p2Choice = null;
+    // Seat that won the last game, 0 for a draw; replayed to a player who resumes after it
+    private int lastWinner = 0;
+    private int p1Wins = 0, p2Wins = 0, draws = 0;
+    // Bumped each time a seat detaches, so only the newest grace window can end the room
+    private int detachGeneration = 0;
+    private final Runnable onClose;
+    private boolean closed = false;
+    // The line spectators get when the room ends, which says why it ended
+    private int endLine = Protocol.END_LINE;
+    private final List<Spectator> spectators = new ArrayList<>();
+
+    /**
+     * @param timer       runs grace window expiry
+     * @param graceMillis how long a detached seat is held for its player to resume
+     */
+    public GameRoom(Server.Player p1, Server.Player p2, Board board, long gameId, GameJournal journal,
+                    Profiles profiles, ServerMetrics metrics, ScheduledExecutorService timer, long graceMillis,
+                    Runnable onClose) {
+        this.p1 = p1;
+        this.p2 = p2;
+        this.board = board;
+        this.gameId = gameId;
+        this.journal = journal;
+        this.profiles = profiles;
+        this.metrics = metrics;
+        this.timer = timer;
+        this.graceMillis = graceMillis;
+        this.onClose = onClose;
+    }
+
+    /**
+     * A queued call; copied out of the transport's reusable frame
+     */
+    private static final class Command {
+        static final int START = -1;
+        static final int EXPIRE = -2;
+        static final int DROP = -3;
+        static final int WATCH = -4;
+        static final int UNWATCH = -5;
+        static final int RESYNC = -6;
+
+        final Server.Player from;
+        final int opcode, row, col;
+        final boolean flag;
+        final Spectator spectator;
+        final long receivedAt = System.nanoTime();
+
+        Command(Server.Player from, int opcode, int row, int col, boolean flag) {
+            this.from = from;
+            this.opcode = opcode;
+            this.row = row;
+            this.col = col;
+            this.flag = flag;
+            this.spectator = null;
+        }
+
+        Command(int opcode, Spectator spectator) {
+            this.from = null;
+            this.opcode = opcode;
+            this.row = 0;
+            this.col = 0;
+            this.flag = false;
+            this.spectator = spectator;
+        }
+    }
+
+    /**
+     * Binds both players to this room and sends START
+     */
+    public void start() {
+        submit(new Command(null, Command.START, 0, 0, false));
+    }
+
+    /**
+     * Puts the room back in a recovered mid-game state with both seats detached, and starts their grace
+     * window; only called before the room is shared
+     */
+    void restore(Recovery.OpenGame game) {
+        p1Turn = game.p1Turn();
+        gameOver = game.gameOver;
+        waitingForRestart = game.gameOver;
+        lastWinner = game.winner;
+        p1Wins = game.wins[0];
+        p2Wins = game.wins[1];
+        draws = game.draws;
+        p1Choice = choice(game.choices[0]);
+        p2Choice = choice(game.choices[1]);
+        p1.room = this;
+        p2.room = this;
+        scheduleExpiry();
+    }
+
+    private static String choice(int code) {
+        return code == 1 ? "yes" : code == 2 ? "no" : null;
+    }
+
+    /**
+     * Seats a returning player in place of the seat holding the same session token, then sends them the
+     * current game. A player whose token matches no seat is told the session is over.
+     *
+     * @param player the new session, with its token set
+     */
+    public void resume(Server.Player player) {
+        submit(new Command(player, Protocol.RESUME, 0, 0, false));
+    }
+
+    /**
+     * Holds the player's seat for the grace window after its connection dropped without a DISCONNECT.
+     * The opponent is told and play pauses until the player resumes; if it does not, the room ends.
+     *
+     * @param who the player whose link went away
+     */
+    public void drop(Server.Player who) {
+        submit(new Command(who, Command.DROP, 0, 0, false));
+    }
+
+    /**
+     * Adds a spectator, which is sent the game so far and then every event; ended at once if the room is
+     */
+    public void watch(Spectator spectator) {
+        submit(new Command(Command.WATCH, spectator));
+    }
+
+    /**
+     * Removes a spectator whose link went away
+     */
+    public void unwatch(Spectator spectator) {
+        submit(new Command(Command.UNWATCH, spectator));
+    }
+
+    /**
+     * Sends a snapshot to a spectator that dropped frames and has since caught up
+     */
+    void resync(Spectator spectator) {
+        submit(new Command(Command.RESYNC, spectator));
+    }
+
+    /**
+     * Applies one decoded command received from a player. The frame may be reused as soon as this returns.
+     *
+     * @param from  the sending player
+     * @param frame the decoded line
+     */
+    public void handle(Server.Player from, Protocol.Frame frame) {
+        submit(new Command(from, frame.opcode, frame.row, frame.col, frame.flag));
+    }
+
+    /**
+     * Ends the room because a player went away, telling the other one
+     *
+     * @param who the player that left
+     */
+    public void leave(Server.Player who) {
+        submit(new Command(who, Protocol.DISCONNECT, 0, 0, false));
+    }
+
+    private void submit(Command command) {
+        commands.offer(command);
+        if (pending.getAndIncrement() != 0) return;
+        // This thread is now the room's only writer until the queue runs dry
+        do {
+            Command next = commands.poll();
+            try {
+                boolean moved = apply(next);
+                // Everything one command produced leaves as a single write per player
+                p1.connection.flush();
+                p2.connection.flush();
+                if (moved) {
+                    metrics.moveApplied(System.nanoTime() - next.receivedAt);
+                }
+            } catch (RuntimeException e) {
+                // A broken room must not wedge the queue; end it instead
+                System.out.println("Room failed: " + e);
+                if (!closed) close(Protocol.END_LINE);
+            }
+        } while (pending.decrementAndGet() != 0);
+    }
+
+    // Returns true if the command was a move that was played
+    private boolean apply(Command command) {
+        if (closed) {
+            if (command.opcode == Protocol.RESUME) {
+                refuse(command.from);
+            } else if (command.opcode == Command.WATCH) {
+                command.spectator.offer(Protocol.encoded(endLine, false));
+                command.spectator.closeAfterDrain();
+            }
+            return false;
+        }
+        // Lines from a session that has since been replaced in its seat are stale
+        if (command.from != null && command.from != p1 && command.from != p2 && command.opcode != Protocol.RESUME) {
+            return false;
+        }
+        switch (command.opcode) {
+            case Command.START:
+                begin();
+                break;
+            case Protocol.RESUME:
+                reseat(command.from);
+                break;
+            case Command.DROP:
+                // begin() may already have detached a seat that went during setup
+                if (command.from == p1 || command.from == p2) detach(command.from);
+                break;
+            case Command.WATCH:
+                command.spectator.room = this;
+                spectators.add(command.spectator);
+                sendView(command.spectator);
+                break;
+            case Command.UNWATCH:
+                spectators.remove(command.spectator);
+                break;
+            case Command.RESYNC:
+                if (command.spectator.stale && spectators.contains(command.spectator)) {
+                    command.spectator.stale = false;
+                    command.spectator.offer(spectatorSnapshot());
+                }
+                break;
+            case Command.EXPIRE:
+                // Only the newest grace window counts; earlier ones were ended by a resume
+                if (command.row == detachGeneration && (p1.isDetached() || p2.isDetached())) {
+                    Server.Player gone = p1.isDetached() ? p1 : p2;
+                    Server.Player other = gone == p1 ? p2 : p1;
+                    if (journal != null) journal.end(gameId, seat(gone), GameJournal.END_LEFT);
+                    other.send(Protocol.OPPONENT_LEFT_LINE);
+                    other.closeReason = ServerMetrics.DisconnectReason.OPPONENT_LEFT;
+                    close(Protocol.OPPONENT_LEFT_LINE);
+                }
+                break;
+            case Protocol.MOVE:
+                if (move(command.from, command.row, command.col)) return true;
+                metrics.illegalMove();
+                break;
+            case Protocol.RESTART:
+                restart(command.from, command.flag);
+                break;
+            case Protocol.DISCONNECT:
+                Server.Player other = command.from == p1 ? p2 : p1;
+                if (journal != null) journal.end(gameId, seat(command.from), GameJournal.END_LEFT);
+                other.send(Protocol.OPPONENT_LEFT_LINE);
+                if (command.from.closeReason == null) command.from.closeReason = ServerMetrics.DisconnectReason.QUIT;
+                other.closeReason = ServerMetrics.DisconnectReason.OPPONENT_LEFT;
+                close(Protocol.OPPONENT_LEFT_LINE);
+                break;
+            default:
+                break;
+        }
+        return false;
+    }
+
+    private void begin() {
+        p1.room = this;
+        p2.room = this;
+        p1.width = board.cols();
+        p2.width = board.cols();
+        // Start game; the trailing dimensions let clients lay out their grid
+        if (journal != null) {
+            journal.start(gameId, board.rows(), board.cols(), board.winLength());
+            journal.player(gameId, 1, p1.token, p1.name);
+            journal.player(gameId, 2, p2.token, p2.name);
+        }
+        sendStart(p1, p2, true);
+        sendStart(p2, p1, false);
+        p1.send(Protocol.YOUR_TURN);
+        p2.send(Protocol.WAIT);
+        // A player whose link went between leaving the queue and being bound here saw no room to drop
+        // from; Server.disconnected marks it gone before looking, so one side or the other notices
+        if (p1.gone) detach(p1);
+        if (p2.gone) detach(p2);
+    }
+
+    private void sendStart(Server.Player player, Server.Player opponent, boolean first) {
+        String dims = " " + board.rows() + " " + board.cols() + " " + board.winLength();
+        player.connection.send("START " + (first ? "P1 " : "P2 ") + opponent.name + dims);
+        if (player.token != 0) {
+            player.connection.send("SESSION " + player.token);
+            sendStats(player);
+        }
+    }
+
+    // Bots have no token and no profile
+    private void sendStats(Server.Player player) {
+        if (profiles == null || player.token == 0) return;
+        Profiles.Profile profile = profiles.get(player.name);
+        player.connection.send(Protocol.encodeStats(profile.wins, profile.losses, profile.draws));
+    }
+
+    private void recordResult(int winnerSeat) {
+        if (profiles == null) return;
+        if (p1.token != 0 && p2.token != 0) {
+            profiles.recordGame(p1.name, p2.name, winnerSeat);
+        } else {
+            Server.Player human = p1.token != 0 ? p1 : p2;
+            int seat = seat(human);
+            profiles.recordResult(human.name, winnerSeat == 0 ? Protocol.DRAW : winnerSeat == seat ? Protocol.WIN : Protocol.LOSE);
+        }
+        sendStats(p1);
+        sendStats(p2);
+    }
+
+    // Hands one shared frame to every spectator that is keeping up
+    private void publish(byte[] frame) {
+        for (int i = 0; i < spectators.size(); i++) {
+            Spectator spectator = spectators.get(i);
+            if (!spectator.stale) spectator.offer(frame);
+        }
+    }
+
+    private void publish(String line) {
+        if (!spectators.isEmpty()) publish((line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The header and current state, from P1's side
+    private void sendView(Spectator spectator) {
+        String dims = " " + board.rows() + " " + board.cols() + " " + board.winLength();
+        spectator.offer(("START P1 " + p2.name + dims + "\n").getBytes(StandardCharsets.UTF_8));
+        spectator.offer(("MESSAGE Watching " + p1.name + " (X) vs " + p2.name + " (O).\n").getBytes(StandardCharsets.UTF_8));
+        spectator.offer(spectatorSnapshot());
+    }
+
+    private byte[] spectatorSnapshot() {
+        int result = !gameOver ? 0 : lastWinner == 0 ? Protocol.DRAW : lastWinner == 1 ? Protocol.WIN : Protocol.LOSE;
+        return Protocol.encodeSnapshot(board, !gameOver && p1Turn, result, p1Wins, p2Wins, draws);
+    }
+
+    private void detach(Server.Player player) {
+        Server.Player placeholder = Server.Player.detached(player.name, player.token);
+        placeholder.room = this;
+        Server.Player other = player == p1 ? p2 : p1;
+        if (player == p1) p1 = placeholder; else p2 = placeholder;
+        String notice = "MESSAGE " + player.name + " lost connection; holding the game for "
+                + graceMillis / 1000 + " seconds.";
+        other.connection.send(notice);
+        publish(notice);
+        scheduleExpiry();
+    }
+
+    private void scheduleExpiry() {
+        int generation = ++detachGeneration;
+        timer.schedule(() -> submit(new Command(null, Command.EXPIRE, generation, 0, false)),
+                graceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void reseat(Server.Player player) {
+        boolean first;
+        if (p1.token == player.token) {
+            first = true;
+        } else if (p2.token == player.token) {
+            first = false;
+        } else {
+            refuse(player);
+            return;
+        }
+        Server.Player old = first ? p1 : p2;
+        if (first) p1 = player; else p2 = player;
+        player.name = old.name;
+        player.room = this;
+        player.width = board.cols();
+        // A session still attached to the seat has been superseded
+        if (!old.isDetached()) {
+            old.closeReason = ServerMetrics.DisconnectReason.QUIT;
+            old.connection.close();
+        }
+        // Bring the player up to date in two lines: the game header, then one snapshot of the game
+        Server.Player other = first ? p2 : p1;
+        sendStart(player, other, first);
+        int seat = first ? 1 : 2;
+        int result = !gameOver ? 0 : lastWinner == 0 ? Protocol.DRAW : lastWinner == seat ? Protocol.WIN : Protocol.LOSE;
+        player.connection.send(Protocol.encodeSnapshot(board, !gameOver && p1Turn == first, result,
+                first ? p1Wins : p2Wins, first ? p2Wins : p1Wins, draws));
+        if (!other.isDetached()) {
+            other.connection.send("MESSAGE " + player.name + " is back.");
+        }
+        publish("MESSAGE " + player.name + " is back.");
+        // Gone again before being bound, as in begin()
+        if (player.gone) detach(player);
+    }
+
+    private static void refuse(Server.Player player) {
+        player.closeReason = ServerMetrics.DisconnectReason.QUIT;
+        player.send(Protocol.END_LINE);
+        player.connection.flush();
+        player.connection.close();
+    }
+
+    // Returns false if the move was illegal and ignored
+    private boolean move(Server.Player from, int row, int col) {
+        if (gameOver || waitingForRestart) return false;
+        boolean isP1 = from == p1;
+        Server.Player opponent = isP1 ? p2 : p1;
+        int cell = board.cell(row, col);
+        if (cell < 0) return false;
+        boolean currentTurn = isP1 ? p1Turn : !p1Turn;
+        if (!board.isEmpty(cell) || !currentTurn) return false;
+        char mark = isP1 ? 'X' : 'O';
+        board.place(cell, mark);
+        if (journal != null) journal.move(gameId, seat(from), row, col);
+        // Broadcast update
+        from.sendUpdate(row, col, mark, board.cols());
+        opponent.sendUpdate(row, col, mark, board.cols());
+        if (!spectators.isEmpty()) {
+            // Encoded once for the whole audience
+            byte[] update = new byte[Protocol.MAX_UPDATE_LENGTH];
+            int length = Protocol.encodeUpdate(update, row, col, mark, false, board.cols());
+            publish(Arrays.copyOf(update, length));
+        }
+        if (board.isWinningMove(row, col, mark)) {
+            if (journal != null) journal.gameOver(gameId, seat(from));
+            lastWinner = seat(from);
+            if (isP1) p1Wins++; else p2Wins++;
+            from.send(Protocol.GAMEOVER_WIN);
+            opponent.send(Protocol.GAMEOVER_LOSE);
+            publish(Protocol.encoded(isP1 ? Protocol.GAMEOVER_WIN : Protocol.GAMEOVER_LOSE, false));
+            recordResult(seat(from));
+            gameOver = true;
+            waitingForRestart = true;
+            p1Choice = null;
+            p2Choice = null;
+        } else if (board.isFull()) {
+            if (journal != null) journal.gameOver(gameId, 0);
+            lastWinner = 0;
+            draws++;
+            from.send(Protocol.GAMEOVER_DRAW);
+            opponent.send(Protocol.GAMEOVER_DRAW);
+            publish(Protocol.encoded(Protocol.GAMEOVER_DRAW, false));
+            recordResult(0);
+            gameOver = true;
+            waitingForRestart = true;
+            p1Choice = null;
+            p2Choice = null;
+        } else {
+            p1Turn = !p1Turn;
+            from.send(Protocol.VALID_MOVE);
+            opponent.send(Protocol.OPPONENT_MOVED);
+        }
+        return true;
+    }
+
+    private void restart(Server.Player from, boolean yes) {
+        if (!waitingForRestart) return;
+        String choice = yes ? "yes" : "no";
+        if (journal != null) journal.restart(gameId, seat(from), yes);
+        if (from == p1) {
+            p1Choice = choice;
+        } else {
+            p2Choice = choice;
+        }
+        if (p1Choice != null && p2Choice != null) {
+            if (p1Choice.equals("yes") && p2Choice.equals("yes")) {
+                board.clear();
+                if (journal != null) journal.reset(gameId);
+                gameOver = false;
+                waitingForRestart = false;
+                p1Turn = true;
+                p1.send(Protocol.RESET_LINE);
+                p1.send(Protocol.YOUR_TURN);
+                p2.send(Protocol.RESET_LINE);
+                publish(Protocol.encoded(Protocol.RESET_LINE, false));
+                p2.send(Protocol.WAIT);
+            } else {
+                if (journal != null) journal.end(gameId, p1Choice.equals("no") ? 1 : 2, GameJournal.END_DECLINED);
+                p1.send(Protocol.END_LINE);
+                p2.send(Protocol.END_LINE);
+                p1.closeReason = ServerMetrics.DisconnectReason.RESTART_DECLINED;
+                p2.closeReason = ServerMetrics.DisconnectReason.RESTART_DECLINED;
+                close(Protocol.END_LINE);
+            }
+            p1Choice = null;
+            p2Choice = null;
+        }
+    }
+
+    private int seat(Server.Player player) {
+        return player == p1 ? 1 : 2;
+    }
+
+    /**
+     * Closes both connections and every spectator's once; the room is finished after this
+     *
+     * @param line the pre-encoded line telling spectators why the game ended, as the players were told
+     */
+    private void close(int line) {
+        closed = true;
+        endLine = line;
+        p1.connection.close();
+        p2.connection.close();
+        for (Spectator spectator : spectators) {
+            spectator.offer(Protocol.encoded(line, false));
+            spectator.closeAfterDrain();
+        }
+        spectators.clear();
+        onClose.run();
+    }
+}
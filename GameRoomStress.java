@@ -0,0 +1,178 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the ordering guarantees of the {@link GameRoom} actor under contention.
+ * Several threads per seat fire random MOVE, RESTART and DISCONNECT commands at one room at once, then
+ * each player's output is checked: both players see the same UPDATE and RESET sequence, marks alternate
+ * from X after every START and RESET, no cell is taken twice in a round, nothing moves between a game
+ * over and its reset or after the room ends, and the room closes exactly once.
+ */
+public class GameRoomStress {
+    private static final long CLOSE_WAIT_MILLIS = 5_000;
+
+    // Records every line sent to one player
+    private static final class Recorder implements Connection {
+        final List<String> lines = new ArrayList<>();
+
+        @Override
+        public synchronized void send(byte[] frame, int offset, int length) {
+            for (String line : new String(frame, offset, length, StandardCharsets.UTF_8).split("\n")) {
+                if (!line.isEmpty()) lines.add(line);
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        synchronized List<String> lines() {
+            return new ArrayList<>(lines);
+        }
+    }
+
+    /**
+     * @param args optional room count (default 2000), threads per seat (default 3) and commands per
+     *             thread (default 40)
+     */
+    public static void main(String[] args) throws Exception {
+        int rooms = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threadsPerSeat = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int commands = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+        ExecutorService senders = Executors.newFixedThreadPool(2 * threadsPerSeat);
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        ServerMetrics metrics = new ServerMetrics(() -> 0, () -> 0);
+        int violations = 0;
+        long updates = 0;
+        long start = System.nanoTime();
+        for (int r = 0; r < rooms; r++) {
+            Recorder c1 = new Recorder(), c2 = new Recorder();
+            Server.Player p1 = new Server.Player(c1), p2 = new Server.Player(c2);
+            p1.name = "a";
+            p2.name = "b";
+            AtomicInteger closes = new AtomicInteger();
+            CountDownLatch closed = new CountDownLatch(1);
+            GameRoom room = new GameRoom(p1, p2, new Board(), r, null, null, metrics, timer, 60_000, () -> {
+                closes.incrementAndGet();
+                closed.countDown();
+            });
+            room.start();
+            CountDownLatch go = new CountDownLatch(1);
+            List<Future<?>> running = new ArrayList<>();
+            for (Server.Player player : new Server.Player[] {p1, p2}) {
+                for (int t = 0; t < threadsPerSeat; t++) {
+                    running.add(senders.submit(() -> {
+                        go.await();
+                        ThreadLocalRandom random = ThreadLocalRandom.current();
+                        Protocol.Frame frame = new Protocol.Frame();
+                        for (int i = 0; i < commands; i++) {
+                            int pick = random.nextInt(1000);
+                            frame.opcode = pick < 800 ? Protocol.MOVE : pick < 999 ? Protocol.RESTART : Protocol.DISCONNECT;
+                            frame.row = random.nextInt(3);
+                            frame.col = random.nextInt(3);
+                            frame.flag = random.nextInt(10) > 0;
+                            room.handle(player, frame);
+                        }
+                        return null;
+                    }));
+                }
+            }
+            go.countDown();
+            for (Future<?> future : running) {
+                future.get();
+            }
+            // End every room the same way, so there is always a close to wait for
+            room.leave(p1);
+            if (!closed.await(CLOSE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                System.out.println("room " + r + ": never closed");
+                violations++;
+                continue;
+            }
+            // Give a second close, if the room would make one, time to show up
+            Thread.sleep(1);
+            if (closes.get() != 1) {
+                System.out.println("room " + r + ": closed " + closes.get() + " times");
+                violations++;
+            }
+            List<String> seen1 = events(c1.lines()), seen2 = events(c2.lines());
+            if (!seen1.equals(seen2)) {
+                System.out.println("room " + r + ": players saw different games\n  " + seen1 + "\n  " + seen2);
+                violations++;
+            }
+            for (Recorder recorder : new Recorder[] {c1, c2}) {
+                String problem = check(recorder.lines());
+                if (problem != null) {
+                    System.out.println("room " + r + ": " + problem);
+                    violations++;
+                }
+            }
+            updates += seen1.stream().filter(e -> e.startsWith("UPDATE")).count();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        senders.shutdown();
+        timer.shutdownNow();
+        System.out.printf("rooms=%d updates=%d elapsed=%.1fs violations=%d%n", rooms, updates, seconds, violations);
+        System.exit(violations == 0 ? 0 : 1);
+    }
+
+    // The board events of a player's stream, which both players must see in the same order
+    private static List<String> events(List<String> lines) {
+        List<String> events = new ArrayList<>();
+        for (String line : lines) {
+            if (line.startsWith("UPDATE") || line.startsWith("RESET")) events.add(line);
+        }
+        return events;
+    }
+
+    // Replays one player's stream; returns what went wrong, or null
+    private static String check(List<String> lines) {
+        Set<String> taken = new HashSet<>();
+        char expected = 'X';
+        boolean over = false, ended = false;
+        for (String line : lines) {
+            String[] parts = line.split(" ");
+            if (ended && (line.startsWith("UPDATE") || line.startsWith("RESET"))) {
+                return "'" + line + "' after the room ended";
+            }
+            switch (parts[0]) {
+                case "UPDATE":
+                    if (over) return "'" + line + "' between game over and reset";
+                    if (parts[3].charAt(0) != expected) return "'" + line + "' out of turn";
+                    if (!taken.add(parts[1] + " " + parts[2])) return "'" + line + "' on a taken cell";
+                    expected = expected == 'X' ? 'O' : 'X';
+                    break;
+                case "GAMEOVER":
+                    over = true;
+                    break;
+                case "RESET":
+                    if (!over) return "RESET without a game over";
+                    taken.clear();
+                    expected = 'X';
+                    over = false;
+                    break;
+                case "OPPONENT_LEFT":
+                case "END":
+                    ended = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+}
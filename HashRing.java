@@ -0,0 +1,66 @@
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring. Every member owns a number of pseudo-random points on a 64-bit circle, and a key
+ * belongs to the member owning the first point at or after the key's hash. Adding or removing a member
+ * moves only the keys next to its own points, about 1/n of them, and many points per member spread keys
+ * evenly. Not thread-safe; callers lock.
+ *
+ * @param <T> the member type
+ */
+public class HashRing<T> {
+    private final int pointsPerMember;
+    private final TreeMap<Long, T> points = new TreeMap<>();
+
+    /**
+     * @param pointsPerMember points each member owns; more spread keys more evenly
+     */
+    public HashRing(int pointsPerMember) {
+        this.pointsPerMember = pointsPerMember;
+    }
+
+    /**
+     * Adds a member, which takes over the keys nearest its points
+     *
+     * @param id stable across restarts, so every router places the member's points alike
+     */
+    public void add(long id, T member) {
+        for (int i = 0; i < pointsPerMember; i++) {
+            points.put(point(id, i), member);
+        }
+    }
+
+    /**
+     * Removes a member; its keys move to the members owning the next points round the ring
+     */
+    public void remove(long id) {
+        for (int i = 0; i < pointsPerMember; i++) {
+            points.remove(point(id, i));
+        }
+    }
+
+    /**
+     * The member a key belongs to, or null if the ring is empty
+     */
+    public T get(long key) {
+        if (points.isEmpty()) return null;
+        Map.Entry<Long, T> owner = points.ceilingEntry(mix(key));
+        return owner != null ? owner.getValue() : points.firstEntry().getValue();
+    }
+
+    public boolean isEmpty() {
+        return points.isEmpty();
+    }
+
+    private static long point(long id, int i) {
+        return mix(mix(id) + i);
+    }
+
+    // SplitMix64 finalizer: neighbouring keys land far apart on the ring
+    static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures what idle connections cost the blocking transport with platform threads and with virtual threads.
+ * For each mode and connection count a server is started in a fresh JVM; this process then opens that many
+ * sockets that never send a line, so every one parks a reader in the server, and prints the server's
+ * {@link Thread#activeCount()} and resident memory once it has accepted them all.
+ * <p>
+ * Each connection takes a file descriptor on both sides, so the counts reached are bounded by "ulimit -n".
+ * Clients connect to several loopback addresses so that large counts do not run out of ephemeral ports.
+ */
+public class IdleConnectionBenchmark {
+    private static final int LOOPBACK_ADDRESSES = 4;
+    private static final int BATCH = 32;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+    private static final long ACCEPT_POLL_MILLIS = 1;
+    private static final long ACCEPT_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * @param args "--connections 1000,10000" counts to measure (default 1000,10000,50000);
+     *             "--modes platform,virtual" (default both)
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> list = Arrays.asList(args);
+        if (list.contains("--serve")) {
+            serve(option(list, "--serve", "platform"), Integer.parseInt(option(list, "--port", "0")));
+            return;
+        }
+        String[] counts = option(list, "--connections", "1000,10000,50000").split(",");
+        String[] modes = option(list, "--modes", "platform,virtual").split(",");
+        for (String mode : modes) {
+            for (String count : counts) {
+                if (!measure(mode.trim(), Integer.parseInt(count.trim()))) break;
+            }
+        }
+    }
+
+    // Returns false if the server could not run in this mode at all
+    private static boolean measure(String mode, int connections) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Process server = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"), IdleConnectionBenchmark.class.getName(),
+                "--serve", mode, "--port", String.valueOf(port))
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        BufferedReader replies = new BufferedReader(new InputStreamReader(server.getInputStream()));
+        PrintStream requests = new PrintStream(server.getOutputStream(), true);
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            String ready = replies.readLine();
+            if (ready == null || !ready.startsWith("Server listening")) {
+                System.out.printf("%s: %s%n", mode, ready);
+                return false;
+            }
+            String idle = stats(requests, replies);
+            if (idle == null) {
+                System.out.printf("%s: server exited before any connection%n", mode);
+                return false;
+            }
+            String failure = null;
+            String loaded = idle;
+            while (sockets.size() < connections && failure == null) {
+                // The server listens with the default backlog, so connect in small batches and let it accept
+                // each one; connects beyond a full backlog look open here but never reach the server
+                int batch = Math.min(BATCH, connections - sockets.size());
+                for (int i = 0; i < batch && failure == null; i++) {
+                    String address = "127.0.0." + (1 + sockets.size() % LOOPBACK_ADDRESSES);
+                    Socket socket = new Socket();
+                    try {
+                        socket.connect(new InetSocketAddress(address, port), CONNECT_TIMEOUT_MILLIS);
+                        sockets.add(socket);
+                    } catch (IOException e) {
+                        socket.close();
+                        failure = e.toString();
+                    }
+                }
+                long deadline = System.currentTimeMillis() + ACCEPT_TIMEOUT_MILLIS;
+                while (true) {
+                    String reply = stats(requests, replies);
+                    if (reply == null) {
+                        failure = "server exited";
+                        break;
+                    }
+                    loaded = reply;
+                    if (accepted(loaded) >= sockets.size() || failure != null) break;
+                    if (System.currentTimeMillis() > deadline) {
+                        failure = "server stopped accepting";
+                        break;
+                    }
+                    Thread.sleep(ACCEPT_POLL_MILLIS);
+                }
+            }
+            System.out.printf("%-8s connections=%-6d idle: %s  loaded: %s%n", mode, sockets.size(), idle, loaded);
+            if (failure != null) {
+                System.out.printf("%-8s stopped at %d of %d connections: %s%n",
+                        mode, sockets.size(), connections, failure);
+            }
+            return true;
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            requests.close();
+            server.destroy();
+            server.waitFor();
+        }
+    }
+
+    // The server's figures, or null once it has exited; its own log lines share the pipe and are skipped
+    private static String stats(PrintStream requests, BufferedReader replies) throws IOException {
+        requests.println();
+        String line;
+        do {
+            line = replies.readLine();
+        } while (line != null && !line.startsWith("accepted="));
+        return line;
+    }
+
+    private static long accepted(String stats) {
+        return Long.parseLong(stats.substring(stats.indexOf('=') + 1, stats.indexOf(' ')));
+    }
+
+    // The server side: a Server on the blocking transport, answering each line on stdin with its figures
+    private static void serve(String mode, int port) throws IOException {
+        ExecutorService executor;
+        if (mode.equals("virtual")) {
+            try {
+                executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("virtual threads need Java 21+, skipped");
+                return;
+            }
+        } else {
+            executor = Executors.newCachedThreadPool();
+        }
+        Server server = new Server(3, 3, 3);
+        Thread serving = new Thread(() -> server.serveBlocking(port, executor), "serve");
+        serving.setDaemon(true);
+        serving.start();
+        BufferedReader requests = new BufferedReader(new InputStreamReader(System.in));
+        while (requests.readLine() != null) {
+            System.out.printf("accepted=%d threads=%d rss=%dMB%n", server.metrics().getActiveConnections(),
+                    Thread.activeCount(), residentKilobytes() / 1024);
+        }
+        System.exit(0);
+    }
+
+    private static long residentKilobytes() throws IOException {
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D", ""));
+            }
+        }
+        return -1;
+    }
+
+    private static String option(List<String> args, String name, String fallback) {
+        int index = args.indexOf(name);
+        return index >= 0 && index + 1 < args.size() ? args.get(index + 1) : fallback;
+    }
+}
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads a {@link GameJournal} directory back in log order.
+ * Segments are mapped read-only and decoded into one reused record, so scanning stays cheap however
+ * long the log is. Reading stops at the first missing or torn record, exactly where the writer resumes.
+ */
+public class JournalReader {
+    private final Path directory;
+
+    public JournalReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Hands every intact record to the consumer in order; the record is reused between calls
+     */
+    public void forEach(Consumer<GameJournal.Record> consumer) throws IOException {
+        forEachFrom(0, consumer);
+    }
+
+    /**
+     * Hands every intact record from the given journal index on to the consumer, in order.
+     * Whole segments before the index are skipped without being read.
+     */
+    public void forEachFrom(long index, Consumer<GameJournal.Record> consumer) throws IOException {
+        GameJournal.Record record = new GameJournal.Record();
+        List<Path> segments = GameJournal.segments(directory);
+        for (int i = 0; i < segments.size(); i++) {
+            if (i + 1 < segments.size() && GameJournal.segmentStart(segments.get(i + 1)) <= index) continue;
+            Path path = segments.get(i);
+            long first = GameJournal.segmentStart(path);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int slots = (int) (channel.size() / GameJournal.RECORD_SIZE);
+                for (int slot = (int) Math.max(0, index - first); slot < slots; slot++) {
+                    if (!GameJournal.read(segment, slot, record)) return;
+                    record.index = first + slot;
+                    consumer.accept(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands every record of one game to the consumer in order
+     */
+    public void replay(long gameId, Consumer<GameJournal.Record> consumer) throws IOException {
+        forEach(record -> {
+            if (record.gameId == gameId) consumer.accept(record);
+        });
+    }
+
+    /**
+     * Prints a journal.
+     *
+     * @param args the journal directory, then optionally a game id to print only that game
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java JournalReader <journal dir> [game id]");
+            return;
+        }
+        JournalReader reader = new JournalReader(Paths.get(args[0]));
+        if (args.length > 1) {
+            reader.replay(Long.parseLong(args[1]), System.out::println);
+        } else {
+            reader.forEach(System.out::println);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent log-linear histogram of non-negative long values, e.g. latencies in nanoseconds.
+ * Values below 256 are counted exactly; above that each power of two is split into 128 buckets, so any
+ * recorded value is reported to within 1%. Each bucket is a {@link LongAdder}, created the first time a value
+ * lands in it, so threads recording similar latencies at once do not all contend on one counter; recording
+ * takes no locks and, once a bucket exists, allocates nothing unless it becomes contended.
+ * The percentile report follows HdrHistogram's text layout so existing plotting scripts can read it.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 7;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicReferenceArray<LongAdder> counts = new AtomicReferenceArray<>(BUCKETS);
+
+    public void record(long value) {
+        int index = index(Math.max(0, value));
+        LongAdder bucket = counts.get(index);
+        if (bucket == null) {
+            counts.compareAndSet(index, null, new LongAdder());
+            bucket = counts.get(index);
+        }
+        bucket.increment();
+    }
+
+    private long count(int index) {
+        LongAdder bucket = counts.get(index);
+        return bucket == null ? 0 : bucket.sum();
+    }
+
+    private static int index(long value) {
+        int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS - 1);
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    // Largest value that lands in the bucket
+    private static long highest(int index) {
+        int shift = Math.max(0, (index >>> SUB_BITS) - 1);
+        long lowest = (long) (index - (shift << SUB_BITS)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public long count() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += count(i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the value at or below which the given fraction of recordings fall, 0 if nothing was recorded
+     *
+     * @param percentile between 0 and 100
+     */
+    public long percentile(double percentile) {
+        long total = count();
+        if (total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += count(i);
+            if (seen >= target) return highest(i);
+        }
+        return highest(BUCKETS - 1);
+    }
+
+    /**
+     * Prints the percentile distribution in HdrHistogram's format
+     *
+     * @param out   where to print
+     * @param scale divisor applied to values, e.g. 1000.0 to print nanoseconds as microseconds
+     */
+    public void printPercentiles(PrintStream out, double scale) {
+        long total = count();
+        out.println("       Value     Percentile TotalCount 1/(1-Percentile)");
+        out.println();
+        double sum = 0, sumSquares = 0;
+        long max = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = count(i);
+            if (n == 0) continue;
+            double value = highest(i) / scale;
+            sum += value * n;
+            sumSquares += value * value * n;
+            max = highest(i);
+        }
+        if (total > 0) {
+            // Halve the remaining distance to 100% each step, as HdrHistogram does with one tick per half
+            double percentile = 0;
+            for (int step = 0; ; step++) {
+                long value = percentile(percentile);
+                long below = countAtOrBelow(value);
+                double fraction = below / (double) total;
+                String inverse = fraction < 1 ? String.format("%14.2f", 1 / (1 - fraction)) : "";
+                out.printf("%12.3f %14.12f %10d %s%n", value / scale, fraction, below, inverse);
+                if (below == total) break;
+                percentile = 100 - (100 - percentile) / 2;
+                if (step > 40) break;
+            }
+        }
+        double mean = total > 0 ? sum / total : 0;
+        double deviation = total > 0 ? Math.sqrt(Math.max(0, sumSquares / total - mean * mean)) : 0;
+        out.printf("#[Mean    = %12.3f, StdDeviation   = %12.3f]%n", mean, deviation);
+        out.printf("#[Max     = %12.3f, Total count    = %12d]%n", max / scale, total);
+        out.printf("#[Buckets = %12d, SubBuckets     = %12d]%n", BUCKETS / SUB_COUNT, SUB_COUNT);
+    }
+
+    private long countAtOrBelow(long value) {
+        long seen = 0;
+        for (int i = 0; i <= index(value); i++) {
+            seen += count(i);
+        }
+        return seen;
+    }
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a byte stream into lines held in one reusable buffer, without creating a String per line.
+ * Binary protocol frames are recognised by their first byte and returned whole, like a line.
+ */
+public class LineReader {
+    /**
+     * Thrown when a line exceeds the reader's limit
+     */
+    public static class LineTooLongException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public LineTooLongException() {
+            super("Line too long");
+        }
+    }
+
+    private final InputStream in;
+    private final int maxLine;
+    private final byte[] chunk = new byte[8192];
+    private int chunkPos = 0, chunkEnd = 0;
+    private byte[] line = new byte[128];
+    private int lineLength = 0;
+    private long bytesRead = 0;
+
+    public LineReader(InputStream in, int maxLine) {
+        this.in = in;
+        this.maxLine = maxLine;
+    }
+
+    /**
+     * Reads the next line (dropping the terminator) or binary frame into {@link #buffer()}
+     *
+     * @return the line length, or -1 at end of stream
+     * @throws IOException if the stream fails or a line exceeds the limit
+     */
+    public int readLine() throws IOException {
+        lineLength = 0;
+        int frameLength = 0;
+        while (true) {
+            if (chunkPos == chunkEnd) {
+                int n = in.read(chunk);
+                if (n < 0) return -1;
+                bytesRead += n;
+                chunkPos = 0;
+                chunkEnd = n;
+            }
+            while (chunkPos < chunkEnd) {
+                byte b = chunk[chunkPos++];
+                if (lineLength == 0) {
+                    frameLength = Protocol.binaryLength(b);
+                }
+                if (frameLength > 0) {
+                    line[lineLength++] = b;
+                    if (lineLength == frameLength) return lineLength;
+                    continue;
+                }
+                if (b == '\n') {
+                    if (lineLength > 0 && line[lineLength - 1] == '\r') lineLength--;
+                    return lineLength;
+                }
+                if (lineLength == line.length) {
+                    if (line.length >= maxLine) throw new LineTooLongException();
+                    line = Arrays.copyOf(line, line.length * 2);
+                }
+                line[lineLength++] = b;
+            }
+        }
+    }
+
+    /**
+     * Moves bytes already taken from the stream but not yet returned as lines into dst, for a caller
+     * that switches to reading the stream raw
+     *
+     * @return the number of bytes moved
+     */
+    public int drainBuffered(byte[] dst) {
+        int n = Math.min(dst.length, chunkEnd - chunkPos);
+        System.arraycopy(chunk, chunkPos, dst, 0, n);
+        chunkPos += n;
+        return n;
+    }
+
+    /**
+     * Total bytes taken from the stream so far
+     */
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * The bytes of the last line read; overwritten by the next call
+     */
+    public byte[] buffer() {
+        return line;
+    }
+}
@@ -0,0 +1,253 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loopback load test for a running {@link Server}.
+ * Opens N headless players that the server pairs into rooms, has each play random legal moves at a fixed
+ * rate and always restart, then reports moves/sec, games/sec and the move round-trip latency distribution.
+ * A move's round trip runs from sending MOVE to receiving the UPDATE for it. Given the server's metrics
+ * port it also reports the server's flushes and socket writes per move, and the TCP segments sent on this
+ * host per move, which on loopback are the packets the game costs.
+ */
+public class LoadGenerator {
+    private final double movesPerSecond;
+    private final ScheduledExecutorService scheduler;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private volatile boolean running = true;
+    // The server's metrics port, 0 to report only what the players see
+    private int metricsPort = 0;
+
+    public LoadGenerator(double movesPerSecond, int schedulerThreads) {
+        this.movesPerSecond = movesPerSecond;
+        this.scheduler = Executors.newScheduledThreadPool(schedulerThreads, r -> {
+            Thread thread = new Thread(r, "load-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Reads the server's counters from its metrics endpoint before and after the run and reports them per move
+     */
+    public void scrapeServer(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * One simulated player; events arrive on its reader thread
+     */
+    private final class SimulatedPlayer implements GameClient.Listener {
+        GameClient client;
+        // When the pending MOVE was sent, 0 if none is in flight
+        volatile long sentAt = 0;
+
+        @Override
+        public void started(String opponent, boolean player1) {
+            // The turn message that follows drives the first move
+        }
+
+        @Override
+        public void updated(int row, int col, char mark) {
+            long sent = sentAt;
+            if (mark == client.mark() && sent != 0) {
+                latency.record(System.nanoTime() - sent);
+                moves.increment();
+                sentAt = 0;
+            }
+        }
+
+        @Override
+        public void message(int code, String text) {
+            if (code == Protocol.MSG_YOUR_TURN || code == Protocol.MSG_OPPONENT_MOVED) {
+                int cell = randomEmptyCell(client.board());
+                if (cell < 0) return;
+                int cols = client.board().cols();
+                long delayMicros = (long) (1_000_000 / movesPerSecond);
+                scheduler.schedule(() -> play(cell / cols, cell % cols), delayMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        private void play(int row, int col) {
+            if (!running) return;
+            sentAt = System.nanoTime();
+            if (!client.move(row, col)) {
+                sentAt = 0;
+            }
+        }
+
+        @Override
+        public void gameOver(int result) {
+            // Both seats see every game over; count it once
+            if (client.isPlayer1()) {
+                games.increment();
+            }
+            client.restart(running);
+        }
+
+        @Override
+        public void reset() {
+            // The turn message that follows drives the next move
+        }
+
+        @Override
+        public void ended(String text) {
+            // The reader thread finishes
+        }
+
+        @Override
+        public void stats(int wins, int losses, int draws) {
+            // Not measured
+        }
+
+        @Override
+        public void reconnecting(int attempt, long delayMillis) {
+            // Any move in flight is lost with the link
+            sentAt = 0;
+        }
+
+        @Override
+        public void restored(boolean myTurn, int result, int wins, int losses, int draws) {
+            if (result != 0) {
+                client.restart(running);
+            } else if (myTurn) {
+                message(Protocol.MSG_YOUR_TURN, null);
+            }
+        }
+    }
+
+    private static Map<String, Double> scrape(int port) throws IOException {
+        Map<String, Double> values = new HashMap<>();
+        URI uri = URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port + "/metrics");
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(uri.toURL().openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                int space = line.lastIndexOf(' ');
+                if (space > 0) values.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+            }
+        }
+        return values;
+    }
+
+    private static double delta(Map<String, Double> before, Map<String, Double> after, String name) {
+        return after.getOrDefault(name, 0.0) - before.getOrDefault(name, 0.0);
+    }
+
+    // Tcp OutSegs from /proc/net/snmp, or -1 where there is none
+    private static long tcpSegmentsSent() {
+        try {
+            List<String> tcp = new ArrayList<>();
+            for (String line : Files.readAllLines(Paths.get("/proc/net/snmp"))) {
+                if (line.startsWith("Tcp:")) tcp.add(line);
+            }
+            int column = Arrays.asList(tcp.get(0).split(" ")).indexOf("OutSegs");
+            return Long.parseLong(tcp.get(1).split(" ")[column]);
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static int randomEmptyCell(Board board) {
+        int cells = board.rows() * board.cols();
+        int start = ThreadLocalRandom.current().nextInt(cells);
+        for (int i = 0; i < cells; i++) {
+            int cell = (start + i) % cells;
+            if (board.isEmpty(cell)) return cell;
+        }
+        return -1;
+    }
+
+    /**
+     * Connects the players, runs for the given time and prints the report
+     *
+     * @return games finished per second
+     */
+    public double run(int players, int port, long seconds) throws Exception {
+        String host = InetAddress.getLoopbackAddress().getHostAddress();
+        List<SimulatedPlayer> simulated = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            SimulatedPlayer player = new SimulatedPlayer();
+            player.client = new GameClient(host, port, "load-" + i, player);
+            Thread reader = new Thread(player.client::run, "load-reader-" + i);
+            reader.setDaemon(true);
+            reader.start();
+            simulated.add(player);
+        }
+        Map<String, Double> serverBefore = metricsPort > 0 ? scrape(metricsPort) : null;
+        long segmentsBefore = tcpSegmentsSent();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000);
+        running = false;
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        long segments = tcpSegmentsSent() - segmentsBefore;
+
+        System.out.printf("players=%d rate=%.1f moves/s/player elapsed=%.1fs%n", players, movesPerSecond, elapsed);
+        System.out.printf("moves/sec=%.1f games/sec=%.1f%n", moves.sum() / elapsed, games.sum() / elapsed);
+        System.out.printf("round trip us: p50=%.1f p99=%.1f p999=%.1f%n",
+                latency.percentile(50) / 1e3, latency.percentile(99) / 1e3, latency.percentile(99.9) / 1e3);
+        if (serverBefore != null) {
+            Map<String, Double> serverAfter = scrape(metricsPort);
+            double serverMoves = delta(serverBefore, serverAfter, "ttt_moves_total");
+            System.out.printf("server per move: flushes=%.2f socket writes=%.2f bytes out=%.1f%n",
+                    delta(serverBefore, serverAfter, "ttt_flushes_total") / serverMoves,
+                    delta(serverBefore, serverAfter, "ttt_socket_writes_total") / serverMoves,
+                    delta(serverBefore, serverAfter, "ttt_bytes_out_total") / serverMoves);
+            if (segmentsBefore >= 0) {
+                // Loopback carries both ends, and the count includes acks and anything else on the host
+                System.out.printf("host tcp segments sent per move=%.2f%n", segments / serverMoves);
+            }
+        }
+        System.out.println();
+        latency.printPercentiles(System.out, 1e3);
+
+        for (SimulatedPlayer player : simulated) {
+            player.client.disconnect();
+        }
+        scheduler.shutdownNow();
+        return games.sum() / elapsed;
+    }
+
+    /**
+     * Runs a load test against a server on this machine.
+     *
+     * @param args "--players N" simulated players (default 100, paired two per room);
+     *             "--rate R" moves per second per player while it is their turn (default 10);
+     *             "--seconds S" test length (default 10); "--port P" server port (default 12345);
+     *             "--metrics P" the server's metrics port, to report its flushes and writes per move
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> list = Arrays.asList(args);
+        int players = Integer.parseInt(option(list, "--players", "100"));
+        double rate = Double.parseDouble(option(list, "--rate", "10"));
+        long seconds = Long.parseLong(option(list, "--seconds", "10"));
+        int port = Integer.parseInt(option(list, "--port", "12345"));
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+        LoadGenerator generator = new LoadGenerator(rate, threads);
+        String metrics = option(list, "--metrics", null);
+        if (metrics != null) generator.scrapeServer(Integer.parseInt(metrics));
+        generator.run(players, port, seconds);
+    }
+
+    private static String option(List<String> args, String name, String fallback) {
+        int index = args.indexOf(name);
+        return index >= 0 && index + 1 < args.size() ? args.get(index + 1) : fallback;
+    }
+}
@@ -0,0 +1,184 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pairs waiting players with close ratings, accepting a wider gap the longer a player has waited.
+ * Waiting players are split into tiers by how long they have waited; tier t accepts a rating gap of
+ * {@code baseWindow << t}, and the last tier accepts anyone. Each tier keeps its players in a sorted
+ * rating index, so finding the best opponent is one floor and one ceiling lookup per tier, O(log n),
+ * never a scan of the queue. Two players match when their gap fits the wider of their two windows.
+ * <p>
+ * Players move up a tier from the head of a per-tier arrival queue as their wait passes each step,
+ * and are matched again at that moment with their wider window. Not thread-safe; callers lock.
+ *
+ * @param <T> the waiting player type
+ */
+public class Matchmaker<T> {
+    private static final class Entry<T> {
+        final T player;
+        final int rating;
+        // Rating in the high half, arrival sequence in the low half, so equal ratings stay distinct
+        final long key;
+        final long joinedAt;
+        int tier = 0;
+
+        Entry(T player, int rating, int sequence, long joinedAt) {
+            this.player = player;
+            this.rating = rating;
+            this.key = (long) rating << 32 | (sequence & 0xFFFFFFFFL);
+            this.joinedAt = joinedAt;
+        }
+    }
+
+    private static final class Tier<T> {
+        final int window;
+        final TreeMap<Long, Entry<T>> byRating = new TreeMap<>();
+        // Arrival order; entries that were matched or moved on are dropped when they reach the head
+        final ArrayDeque<Entry<T>> byArrival = new ArrayDeque<>();
+
+        Tier(int window) {
+            this.window = window;
+        }
+    }
+
+    private final long tierNanos;
+    private final List<Tier<T>> tiers = new ArrayList<>();
+    private final Map<T, Entry<T>> entries = new HashMap<>();
+    private int nextSequence = 0;
+
+    /**
+     * @param baseWindow rating gap accepted on arrival
+     * @param tierMillis wait before the accepted gap doubles
+     * @param tierCount  number of tiers; the last accepts any gap
+     */
+    public Matchmaker(int baseWindow, long tierMillis, int tierCount) {
+        this.tierNanos = tierMillis * 1_000_000;
+        for (int t = 0; t < tierCount; t++) {
+            tiers.add(new Tier<>(t == tierCount - 1 ? Integer.MAX_VALUE : baseWindow << t));
+        }
+    }
+
+    /**
+     * Matches the player with the closest acceptable waiting opponent, or queues it
+     *
+     * @param now System.nanoTime()
+     * @return the opponent, now out of the queue, or null if the player was queued
+     */
+    public T add(T player, int rating, long now) {
+        Entry<T> entry = new Entry<>(player, rating, nextSequence++, now);
+        Entry<T> opponent = closest(entry);
+        if (opponent != null) {
+            unlink(opponent);
+            return opponent.player;
+        }
+        entries.put(player, entry);
+        insert(entry, 0);
+        return null;
+    }
+
+    /**
+     * Takes a player out of the queue, e.g. when it disconnects or a bot takes its place
+     *
+     * @return false if it was not waiting
+     */
+    public boolean remove(T player) {
+        Entry<T> entry = entries.get(player);
+        if (entry == null) return false;
+        unlink(entry);
+        return true;
+    }
+
+    /**
+     * Moves players whose wait passed the next step up a tier and retries them with the wider window
+     *
+     * @param now   System.nanoTime()
+     * @param pairs receives each new match as two consecutive players, the one that waited longer first
+     */
+    public void promote(long now, List<T> pairs) {
+        // Top down, so a player moves at most one tier per call
+        for (int t = tiers.size() - 2; t >= 0; t--) {
+            Tier<T> tier = tiers.get(t);
+            Entry<T> head;
+            while ((head = tier.byArrival.peek()) != null) {
+                if (head.tier != t || entries.get(head.player) != head) {
+                    tier.byArrival.poll();
+                    continue;
+                }
+                if (now - head.joinedAt < (t + 1) * tierNanos) break;
+                tier.byArrival.poll();
+                tier.byRating.remove(head.key);
+                head.tier = t + 1;
+                Entry<T> opponent = closest(head);
+                if (opponent == null) {
+                    insert(head, t + 1);
+                    continue;
+                }
+                entries.remove(head.player);
+                unlink(opponent);
+                boolean headFirst = head.joinedAt - opponent.joinedAt <= 0;
+                pairs.add(headFirst ? head.player : opponent.player);
+                pairs.add(headFirst ? opponent.player : head.player);
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Everyone waiting, in no particular order; a live view
+     */
+    public Collection<T> players() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    // The closest waiting player that either side's window accepts, from each tier's nearest neighbours
+    private Entry<T> closest(Entry<T> entry) {
+        Entry<T> best = null;
+        long bestGap = Long.MAX_VALUE;
+        int window = tiers.get(entry.tier).window;
+        for (Tier<T> tier : tiers) {
+            if (tier.byRating.isEmpty()) continue;
+            int accepted = Math.max(window, tier.window);
+            Map.Entry<Long, Entry<T>> below = tier.byRating.floorEntry(entry.key);
+            Map.Entry<Long, Entry<T>> above = tier.byRating.ceilingEntry(entry.key);
+            if (below != null) {
+                long gap = (long) entry.rating - below.getValue().rating;
+                if (gap <= accepted && gap < bestGap) {
+                    best = below.getValue();
+                    bestGap = gap;
+                }
+            }
+            if (above != null) {
+                long gap = (long) above.getValue().rating - entry.rating;
+                if (gap <= accepted && gap < bestGap) {
+                    best = above.getValue();
+                    bestGap = gap;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void insert(Entry<T> entry, int tier) {
+        entry.tier = tier;
+        tiers.get(tier).byRating.put(entry.key, entry);
+        // The last tier accepts anyone, so nobody leaves it by waiting
+        if (tier < tiers.size() - 1) {
+            tiers.get(tier).byArrival.add(entry);
+        }
+    }
+
+    // Drops the entry from its index; its arrival queue slot is skipped when it reaches the head
+    private void unlink(Entry<T> entry) {
+        entries.remove(entry.player);
+        tiers.get(entry.tier).byRating.remove(entry.key);
+    }
+}
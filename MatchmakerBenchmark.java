@@ -0,0 +1,52 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures {@link Matchmaker} throughput with a large queue.
+ * Fills the queue with players spread too far apart in rating to match each other, then times a stream
+ * of arrivals at random ratings, each of which either matches or joins the queue, and finally one
+ * widening pass over everyone still waiting.
+ */
+public class MatchmakerBenchmark {
+    private static final int SPACING = 101;
+
+    /**
+     * @param args optional queued player count (default 100000) and arrival count (default 1000000)
+     */
+    public static void main(String[] args) {
+        int queued = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int arrivals = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        for (int round = 0; round < 3; round++) {
+            run(queued, arrivals);
+        }
+    }
+
+    private static void run(int queued, int arrivals) {
+        Matchmaker<Integer> matchmaker = new Matchmaker<>(50, 5_000, 6);
+        Random random = new Random(42);
+        long start = System.nanoTime();
+        for (int i = 0; i < queued; i++) {
+            matchmaker.add(i, i * SPACING, start);
+        }
+        int range = queued * SPACING;
+        int matches = 0;
+        long arrivalsStart = System.nanoTime();
+        for (int i = 0; i < arrivals; i++) {
+            if (matchmaker.add(queued + i, random.nextInt(range), arrivalsStart) != null) {
+                matches++;
+            }
+        }
+        long arrivalsEnd = System.nanoTime();
+        int waiting = matchmaker.size();
+        // Everyone has waited long enough for the next tier: one full widening pass
+        List<Integer> pairs = new ArrayList<>();
+        matchmaker.promote(arrivalsEnd + 5_000_000_000L, pairs);
+        long promoteEnd = System.nanoTime();
+        double seconds = (arrivalsEnd - arrivalsStart) / 1e9;
+        System.out.printf("queued %d, %d arrivals: %.0f ns/arrival, %.0f matches/s (%d matched, %d left waiting)%n",
+                queued, arrivals, (arrivalsEnd - arrivalsStart) / (double) arrivals, matches / seconds, matches, waiting);
+        System.out.printf("widening pass over %d waiting: %.1f ms, %d matched%n",
+                waiting, (promoteEnd - arrivalsEnd) / 1e6, pairs.size() / 2);
+    }
+}
@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking transport: a fixed set of selector event loops multiplexes every client channel.
+ * Frames lines and binary frames exactly like {@link SocketConnection}, so clients can't tell the difference.
+ */
+public class NioTransport {
+    private static final int MAX_LINE = 4096;
+
+    private final Server server;
+    private final EventLoop[] loops;
+
+    public NioTransport(Server server, int loopCount) throws IOException {
+        this.server = server;
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop(i);
+        }
+    }
+
+    /**
+     * Accepts connections on the calling thread and hands them round-robin to the event loops
+     *
+     * @param port the port to listen on
+     */
+    public void serve(int port) throws IOException {
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        try (ServerSocketChannel acceptor = ServerSocketChannel.open()) {
+            acceptor.bind(new InetSocketAddress(port), 1024);
+            System.out.println("Server listening on port " + port + " (" + loops.length + " event loops)");
+            int next = 0;
+            while (true) {
+                SocketChannel channel = null;
+                try {
+                    channel = acceptor.accept();
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    channel.socket().setKeepAlive(true);
+                } catch (IOException e) {
+                    if (!acceptor.isOpen()) throw e;
+                    // As in Server.serveBlocking: one failed accept must not stop new players for good
+                    System.out.println("Accept failed: " + e);
+                    if (channel != null) channel.close();
+                    try {
+                        Thread.sleep(Server.ACCEPT_BACKOFF_MILLIS);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    continue;
+                }
+                EventLoop loop = loops[next];
+                next = (next + 1) % loops.length;
+                NioConnection connection = new NioConnection(channel, loop);
+                loop.execute(connection::register);
+            }
+        }
+    }
+
+    /**
+     * One selector thread. Other threads talk to it only through its task queue.
+     */
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        // Shared by every channel on this loop; each read is fully dispatched before the next
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "nio-loop-" + index);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    // Tasks queued by this thread while handling keys must not wait for a wakeup
+                    if (tasks.isEmpty()) {
+                        selector.select();
+                    } else {
+                        selector.selectNow();
+                    }
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.writePending();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            connection.shutdown(ServerMetrics.DisconnectReason.IO_ERROR);
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private final class NioConnection implements Connection {
+        final SocketChannel channel;
+        final EventLoop loop;
+        // Pending output, kept in write mode; guarded by this connection's monitor
+        ByteBuffer outbound = ByteBuffer.allocate(256);
+        final AtomicBoolean flushScheduled = new AtomicBoolean();
+        volatile boolean closing = false;
+        // Only touched on the loop thread
+        SelectionKey key;
+        Server.Player player;
+        byte[] line = new byte[128];
+        int lineLength = 0;
+        // Length of the binary frame being collected, 0 while collecting a text line
+        int frameLength = 0;
+        boolean closed = false;
+
+        NioConnection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        void register() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+                player = server.connected(this);
+            } catch (IOException e) {
+                shutdown(ServerMetrics.DisconnectReason.IO_ERROR);
+            }
+        }
+
+        @Override
+        public void send(byte[] frame, int offset, int length) {
+            synchronized (this) {
+                if (outbound.remaining() < length) {
+                    int capacity = outbound.capacity();
+                    while (capacity - outbound.position() < length) capacity *= 2;
+                    ByteBuffer grown = ByteBuffer.allocate(capacity);
+                    outbound.flip();
+                    grown.put(outbound);
+                    outbound = grown;
+                }
+                outbound.put(frame, offset, length);
+            }
+            server.metrics().bytesOut(length);
+        }
+
+        @Override
+        public void flush() {
+            server.metrics().flushed();
+            scheduleFlush();
+        }
+
+        @Override
+        public synchronized int pendingBytes() {
+            return channel.isOpen() ? outbound.position() : 0;
+        }
+
+        @Override
+        public void close() {
+            closing = true;
+            scheduleFlush();
+        }
+
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                loop.execute(() -> {
+                    try {
+                        writePending();
+                    } catch (IOException e) {
+                        shutdown(ServerMetrics.DisconnectReason.IO_ERROR);
+                    }
+                });
+            }
+        }
+
+        /**
+         * Writes pending bytes until the socket buffer fills, then waits for OP_WRITE
+         */
+        void writePending() throws IOException {
+            flushScheduled.set(false);
+            if (closed || key == null) return;
+            synchronized (this) {
+                outbound.flip();
+                if (outbound.hasRemaining()) {
+                    server.metrics().socketWrite();
+                    channel.write(outbound);
+                }
+                boolean pending = outbound.hasRemaining();
+                outbound.compact();
+                if (pending) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (closing) {
+                shutdown(ServerMetrics.DisconnectReason.QUIT);
+            }
+        }
+
+        /**
+         * Drains the channel into the loop's buffer and dispatches every complete line or binary frame
+         */
+        void read() throws IOException {
+            ByteBuffer buffer = loop.readBuffer;
+            buffer.clear();
+            int n = channel.read(buffer);
+            if (n < 0) {
+                shutdown(ServerMetrics.DisconnectReason.QUIT);
+                return;
+            }
+            server.metrics().bytesIn(n);
+            buffer.flip();
+            while (buffer.hasRemaining() && !closed) {
+                byte b = buffer.get();
+                if (lineLength == 0) {
+                    frameLength = Protocol.binaryLength(b);
+                }
+                if (frameLength > 0) {
+                    line[lineLength++] = b;
+                    if (lineLength == frameLength) {
+                        lineLength = 0;
+                        server.received(player, line, frameLength);
+                    }
+                } else if (b == '\n') {
+                    int length = lineLength;
+                    if (length > 0 && line[length - 1] == '\r') length--;
+                    lineLength = 0;
+                    server.received(player, line, length);
+                } else {
+                    if (lineLength == line.length) {
+                        if (line.length >= MAX_LINE) {
+                            shutdown(ServerMetrics.DisconnectReason.OVERSIZED_LINE);
+                            return;
+                        }
+                        line = Arrays.copyOf(line, line.length * 2);
+                    }
+                    line[lineLength++] = b;
+                }
+            }
+        }
+
+        /**
+         * Closes the channel and reports the disconnect, once
+         *
+         * @param reason why, unless the room already recorded a reason for this player
+         */
+        void shutdown(ServerMetrics.DisconnectReason reason) {
+            if (closed) return;
+            closed = true;
+            if (key != null) key.cancel();
+            synchronized (this) {
+                // Nothing more will be written
+                outbound.clear();
+            }
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+            if (player != null) server.disconnected(player, reason);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Move search for boards too big to solve: iterative-deepening alpha-beta with each depth's root moves
+ * split across a {@link ForkJoinPool}. All workers, and all games using this instance, share one lock-free
+ * transposition table keyed by Zobrist hash. Every search stops at its time budget and answers with the
+ * best move of the deepest depth it finished, so reply latency stays bounded on any board size.
+ */
+public class ParallelSearch {
+    private static final int INF = 1_000_000_000;
+    private static final int WIN = 1_000_000;
+    private static final int MAX_CELLS = Board.MAX_SIZE * Board.MAX_SIZE;
+    private static final byte EXACT = 0, LOWER = 1, UPPER = 2;
+    // Table entry layout: score in the low 32 bits, then depth, bound flag and best move; depth and move
+    // each get 10 bits, enough for every cell of the largest board
+    private static final int DEPTH_SHIFT = 32, FLAG_SHIFT = 42, MOVE_SHIFT = 44;
+    private static final int DEPTH_MASK = 0x3FF, FLAG_MASK = 0x3, MOVE_MASK = 0x3FF;
+    // Window weights stop growing here, so a nearly full window on a long-k board neither overflows nor
+    // outweighs a real win
+    private static final int MAX_WEIGHT_SHIFT = 18;
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    private final ForkJoinPool pool;
+    private final long budgetNanos;
+    // Lockless hashing: keys[i] holds hash ^ data[i], so a torn write never verifies
+    private final AtomicLongArray keys, data;
+    private final int tableMask;
+    private final long[][] zobrist = new long[2][MAX_CELLS];
+    private final LongAdder nodes = new LongAdder();
+
+    /**
+     * @param threads      workers searching root moves in parallel
+     * @param budgetMillis time allowed per move
+     * @param tableBits    log2 of the transposition table size
+     */
+    public ParallelSearch(int threads, long budgetMillis, int tableBits) {
+        this.pool = new ForkJoinPool(threads);
+        this.budgetNanos = budgetMillis * 1_000_000;
+        this.keys = new AtomicLongArray(1 << tableBits);
+        this.data = new AtomicLongArray(1 << tableBits);
+        this.tableMask = (1 << tableBits) - 1;
+        SplittableRandom random = new SplittableRandom(0x5EED);
+        for (long[] side : zobrist) {
+            for (int cell = 0; cell < MAX_CELLS; cell++) {
+                side[cell] = random.nextLong();
+            }
+        }
+    }
+
+    /**
+     * Total nodes visited by every search so far
+     */
+    public long nodes() {
+        return nodes.sum();
+    }
+
+    /**
+     * Finds a move for the side to play within the time budget
+     *
+     * @param board the position; not modified
+     * @param me    the mark to play
+     * @return the cell to play, or -1 if the board is full
+     */
+    public int bestMove(Board board, char me) {
+        int best = quickMove(board, me);
+        if (best < 0 || wins(board, best, me)) return best;
+        Search search = new Search(System.nanoTime() + budgetNanos);
+        long hash = hash(board);
+        int[] moves = candidates(board);
+        int maxDepth = board.rows() * board.cols() - board.moveCount();
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            moveFirst(moves, best);
+            RootSearch root = new RootSearch(search, board, hash, me, moves, depth);
+            int[] result = pool.invoke(root);
+            if (search.aborted) break;
+            best = result[0];
+            // A forced result can't change with more depth
+            if (Math.abs(result[1]) >= WIN) break;
+        }
+        return best;
+    }
+
+    /**
+     * Per-call state shared by the tasks of one search
+     */
+    private static final class Search {
+        final long deadline;
+        volatile boolean aborted = false;
+
+        Search(long deadline) {
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Searches every root move of one depth in parallel; result is {move, score}
+     */
+    @SuppressWarnings("serial")
+    private final class RootSearch extends RecursiveTask<int[]> {
+        private final Search search;
+        private final Board board;
+        private final long hash;
+        private final char me;
+        private final int[] moves;
+        private final int depth;
+
+        RootSearch(Search search, Board board, long hash, char me, int[] moves, int depth) {
+            this.search = search;
+            this.board = board;
+            this.hash = hash;
+            this.me = me;
+            this.moves = moves;
+            this.depth = depth;
+        }
+
+        @Override
+        protected int[] compute() {
+            AtomicInteger alpha = new AtomicInteger(-INF);
+            // The first (previous best) move is searched alone to give the others a real alpha
+            int first = new RootMove(search, board, hash, me, moves[0], depth, alpha).compute();
+            alpha.accumulateAndGet(first, Math::max);
+            List<RootMove> rest = new ArrayList<>();
+            for (int i = 1; i < moves.length; i++) {
+                rest.add(new RootMove(search, board, hash, me, moves[i], depth, alpha));
+            }
+            invokeAll(rest);
+            int best = moves[0], bestScore = first;
+            for (int i = 0; i < rest.size(); i++) {
+                int score = rest.get(i).join();
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = moves[i + 1];
+                }
+            }
+            return new int[]{best, bestScore};
+        }
+    }
+
+    /**
+     * Scores one root move on a private copy of the board
+     */
+    @SuppressWarnings("serial")
+    private final class RootMove extends RecursiveTask<Integer> {
+        private final Search search;
+        private final Board board;
+        private final long hash;
+        private final char me;
+        private final int cell;
+        private final int depth;
+        private final AtomicInteger alpha;
+
+        RootMove(Search search, Board board, long hash, char me, int cell, int depth, AtomicInteger alpha) {
+            this.search = search;
+            this.board = board;
+            this.hash = hash;
+            this.me = me;
+            this.cell = cell;
+            this.depth = depth;
+            this.alpha = alpha;
+        }
+
+        @Override
+        protected Integer compute() {
+            Board local = new Board(board);
+            local.place(cell, me);
+            int score;
+            if (local.isWinningMove(cell / local.cols(), cell % local.cols(), me)) {
+                score = WIN + depth;
+            } else {
+                score = -negamax(search, local, hash ^ key(me, cell), other(me), depth - 1, -INF, -alpha.get());
+            }
+            alpha.accumulateAndGet(score, Math::max);
+            return score;
+        }
+    }
+
+    private int negamax(Search search, Board board, long hash, char toMove, int depth, int alpha, int beta) {
+        nodes.increment();
+        if (search.aborted) return 0;
+        if (System.nanoTime() > search.deadline) {
+            search.aborted = true;
+            return 0;
+        }
+        if (board.isFull()) return 0;
+        if (depth == 0) return evaluate(board, toMove);
+
+        int slot = (int) hash & tableMask;
+        long entry = data.get(slot);
+        int ttMove = -1;
+        if ((keys.get(slot) ^ entry) == hash) {
+            int score = (int) entry;
+            int entryDepth = (int) (entry >>> DEPTH_SHIFT) & DEPTH_MASK;
+            int flag = (int) (entry >>> FLAG_SHIFT) & FLAG_MASK;
+            ttMove = (int) (entry >>> MOVE_SHIFT) & MOVE_MASK;
+            if (entryDepth >= depth) {
+                if (flag == EXACT) return score;
+                if (flag == LOWER && score >= beta) return score;
+                if (flag == UPPER && score <= alpha) return score;
+            }
+        }
+
+        int alphaIn = alpha;
+        int[] moves = candidates(board);
+        moveFirst(moves, ttMove);
+        int best = -INF, bestMove = moves[0];
+        char next = other(toMove);
+        for (int cell : moves) {
+            board.place(cell, toMove);
+            int score;
+            if (board.isWinningMove(cell / board.cols(), cell % board.cols(), toMove)) {
+                score = WIN + depth;
+            } else {
+                score = -negamax(search, board, hash ^ key(toMove, cell), next, depth - 1, -beta, -Math.max(alpha, best));
+            }
+            board.remove(cell, toMove);
+            if (score > best) {
+                best = score;
+                bestMove = cell;
+            }
+            if (best >= beta) break;
+        }
+        if (!search.aborted) {
+            int flag = best <= alphaIn ? UPPER : best >= beta ? LOWER : EXACT;
+            long packed = (best & 0xFFFFFFFFL) | (long) depth << DEPTH_SHIFT | (long) flag << FLAG_SHIFT
+                    | (long) bestMove << MOVE_SHIFT;
+            data.set(slot, packed);
+            keys.set(slot, hash ^ packed);
+        }
+        return best;
+    }
+
+    /**
+     * Static score from the side to move: every k-cell window holding only one side's stones
+     * counts for that side, weighted steeply by how full it is
+     */
+    private static int evaluate(Board board, char toMove) {
+        int rows = board.rows(), cols = board.cols(), k = board.winLength();
+        long score = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                for (int[] d : DIRECTIONS) {
+                    int endRow = row + d[0] * (k - 1), endCol = col + d[1] * (k - 1);
+                    if (endRow >= rows || endCol < 0 || endCol >= cols) continue;
+                    int mine = 0, theirs = 0;
+                    for (int i = 0; i < k; i++) {
+                        char mark = board.markAt((row + d[0] * i) * cols + col + d[1] * i);
+                        if (mark == toMove) mine++;
+                        else if (mark != ' ') theirs++;
+                    }
+                    if (theirs == 0 && mine > 0) score += 1L << Math.min(3 * mine, MAX_WEIGHT_SHIFT);
+                    else if (mine == 0 && theirs > 0) score -= 1L << Math.min(3 * theirs, MAX_WEIGHT_SHIFT);
+                }
+            }
+        }
+        // Only a won position may score WIN or more
+        return (int) Math.max(-(WIN - 1), Math.min(WIN - 1, score));
+    }
+
+    /**
+     * Empty cells next to a stone, or the centre on an empty board
+     */
+    private static int[] candidates(Board board) {
+        int rows = board.rows(), cols = board.cols();
+        if (board.moveCount() == 0) {
+            return new int[]{board.cell(rows / 2, cols / 2)};
+        }
+        int[] moves = new int[rows * cols];
+        int n = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int cell = row * cols + col;
+                if (board.isEmpty(cell) && hasNeighbour(board, row, col)) {
+                    moves[n++] = cell;
+                }
+            }
+        }
+        return Arrays.copyOf(moves, n);
+    }
+
+    private static boolean hasNeighbour(Board board, int row, int col) {
+        for (int r = Math.max(0, row - 1); r <= Math.min(board.rows() - 1, row + 1); r++) {
+            for (int c = Math.max(0, col - 1); c <= Math.min(board.cols() - 1, col + 1); c++) {
+                if (!board.isEmpty(r * board.cols() + c)) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A move that needs no search: win now, else block the opponent's win, else play nearest the centre
+     *
+     * @return the cell, or -1 if the board is full
+     */
+    static int quickMove(Board board, char me) {
+        char them = other(me);
+        int block = -1, fallback = -1, bestDistance = Integer.MAX_VALUE;
+        int centerRow = board.rows() / 2, centerCol = board.cols() / 2;
+        for (int row = 0; row < board.rows(); row++) {
+            for (int col = 0; col < board.cols(); col++) {
+                int cell = board.cell(row, col);
+                if (!board.isEmpty(cell)) continue;
+                if (wins(board, cell, me)) return cell;
+                if (block < 0 && wins(board, cell, them)) block = cell;
+                int distance = Math.abs(row - centerRow) + Math.abs(col - centerCol);
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    fallback = cell;
+                }
+            }
+        }
+        return block >= 0 ? block : fallback;
+    }
+
+    private static boolean wins(Board board, int cell, char mark) {
+        board.place(cell, mark);
+        boolean win = board.isWinningMove(cell / board.cols(), cell % board.cols(), mark);
+        board.remove(cell, mark);
+        return win;
+    }
+
+    private long hash(Board board) {
+        // Salt with the dimensions so different board shapes never share entries
+        long hash = board.rows() * 1_000_003L + board.cols() * 1_009L + board.winLength();
+        hash *= 0x9E3779B97F4A7C15L;
+        for (int cell = 0; cell < board.rows() * board.cols(); cell++) {
+            char mark = board.markAt(cell);
+            if (mark != ' ') hash ^= key(mark, cell);
+        }
+        return hash;
+    }
+
+    private long key(char mark, int cell) {
+        return zobrist[mark == 'O' ? 1 : 0][cell];
+    }
+
+    private static void moveFirst(int[] moves, int cell) {
+        for (int i = 1; i < moves.length; i++) {
+            if (moves[i] == cell) {
+                moves[i] = moves[0];
+                moves[0] = cell;
+                return;
+            }
+        }
+    }
+
+    private static char other(char mark) {
+        return mark == 'X' ? 'O' : 'X';
+    }
+}
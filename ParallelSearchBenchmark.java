@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures {@link ParallelSearch} nodes/sec and its speedup as worker threads are added.
+ * For each thread count it searches the same set of random mid-game positions, each for the full time
+ * budget, with a fresh transposition table, and prints nodes/sec next to the one-thread figure.
+ */
+public class ParallelSearchBenchmark {
+    private static final int TABLE_BITS = 20;
+
+    /**
+     * @param args "--board rows,cols,k" (default 15,15,5); "--threads 1,2,4" thread counts to measure
+     *             (default 1 up to the core count, doubling); "--positions N" (default 8);
+     *             "--millis M" budget per position (default 1000); "--stones S" placed per position (default 6)
+     */
+    public static void main(String[] args) {
+        List<String> list = Arrays.asList(args);
+        String[] dims = option(list, "--board", "15,15,5").split(",");
+        int rows = Integer.parseInt(dims[0].trim());
+        int cols = Integer.parseInt(dims[1].trim());
+        int winLength = Integer.parseInt(dims[2].trim());
+        int positionCount = Integer.parseInt(option(list, "--positions", "8"));
+        long millis = Long.parseLong(option(list, "--millis", "1000"));
+        int stones = Integer.parseInt(option(list, "--stones", "6"));
+        List<Integer> threadCounts = new ArrayList<>();
+        String threadsOption = option(list, "--threads", null);
+        if (threadsOption != null) {
+            for (String count : threadsOption.split(",")) {
+                threadCounts.add(Integer.parseInt(count.trim()));
+            }
+        } else {
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (int count = 1; count < cores; count *= 2) {
+                threadCounts.add(count);
+            }
+            threadCounts.add(cores);
+        }
+        List<Board> positions = positions(rows, cols, winLength, positionCount, stones);
+
+        // Warm up the JIT on a short search before anything is timed
+        new ParallelSearch(1, 200, TABLE_BITS).bestMove(positions.get(0), 'X');
+
+        double baseline = 0;
+        for (int threads : threadCounts) {
+            ParallelSearch search = new ParallelSearch(threads, millis, TABLE_BITS);
+            long start = System.nanoTime();
+            for (Board position : positions) {
+                search.bestMove(position, position.moveCount() % 2 == 0 ? 'X' : 'O');
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double nodesPerSecond = search.nodes() / seconds;
+            if (baseline == 0) baseline = nodesPerSecond / threads;
+            System.out.printf("threads=%d nodes=%d elapsed=%.2fs %.0f nodes/s %.2fx one thread%n",
+                    threads, search.nodes(), seconds, nodesPerSecond, nodesPerSecond / baseline);
+        }
+        System.exit(0);
+    }
+
+    // Positions with the given number of stones scattered near the centre, where real games are played.
+    // Positions where either side can win at once are skipped, since the search answers those without
+    // using its budget
+    private static List<Board> positions(int rows, int cols, int winLength, int count, int stones) {
+        Random random = new Random(42);
+        List<Board> positions = new ArrayList<>();
+        while (positions.size() < count) {
+            Board board = new Board(rows, cols, winLength);
+            boolean decided = false;
+            for (int i = 0; i < stones && !decided && !board.isFull(); i++) {
+                int row, col, tries = 0;
+                do {
+                    // Anywhere on the board once the centre is crowded
+                    int spread = tries++ < 100 ? 2 : Math.max(rows, cols);
+                    row = rows / 2 + random.nextInt(2 * spread + 1) - spread;
+                    col = cols / 2 + random.nextInt(2 * spread + 1) - spread;
+                } while (board.cell(row, col) < 0 || !board.isEmpty(board.cell(row, col)));
+                char mark = i % 2 == 0 ? 'X' : 'O';
+                board.place(board.cell(row, col), mark);
+                decided = board.isWinningMove(row, col, mark);
+            }
+            if (!decided && !board.isFull() && !threatened(board)) positions.add(board);
+        }
+        return positions;
+    }
+
+    // Whether either side has a winning move
+    private static boolean threatened(Board board) {
+        for (int cell = 0; cell < board.rows() * board.cols(); cell++) {
+            if (!board.isEmpty(cell)) continue;
+            for (char mark : new char[] {'X', 'O'}) {
+                board.place(cell, mark);
+                boolean wins = board.isWinningMove(cell / board.cols(), cell % board.cols(), mark);
+                board.remove(cell, mark);
+                if (wins) return true;
+            }
+        }
+        return false;
+    }
+
+    private static String option(List<String> args, String name, String fallback) {
+        int index = args.indexOf(name);
+        return index >= 0 && index + 1 < args.size() ? args.get(index + 1) : fallback;
+    }
+}
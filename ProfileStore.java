@@ -0,0 +1,274 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Embedded on-disk table of player profiles keyed by name.
+ * The file is one memory-mapped open-addressing hash table of fixed {@link #SLOT_SIZE}-byte slots, so a
+ * lookup or update touches one or two slots and the table never has to be read into memory. When it is
+ * three quarters full it is rehashed into a file twice the size, which then replaces the old one.
+ * Writes land in the page cache at once, so they survive the process dying; the OS writes them back.
+ * <p>
+ * Slot layout, big-endian: name length plus one (1, 0 for an empty slot), name (47), wins (4), losses (4),
+ * draws (4), rating (4, 0 in files written before ratings, read as the starting rating).
+ * A name longer than 47 bytes is appended to a names file next to the table instead; its slot holds
+ * {@link #LONG_NAME} for the length, then the name's offset in that file (8), its length (4) and its first
+ * 35 bytes, so most probes are told apart without reading the file.
+ */
+public class ProfileStore implements Closeable {
+    public static final int SLOT_SIZE = 64;
+    public static final int NAME_CAPACITY = 47;
+
+    private static final int MAGIC = 0x54545450;
+    // Version 2 added long names; a version 1 file is a version 2 file without any
+    private static final int VERSION = 2;
+    private static final byte LONG_NAME = (byte) 0xFF;
+    private static final int PREFIX_CAPACITY = NAME_CAPACITY - 12;
+    // Header: magic, version, capacity, count; padded to one slot
+    private static final int HEADER_SIZE = SLOT_SIZE;
+    private static final int INITIAL_CAPACITY = 1 << 14;
+    // Keeps every slot offset within a mapped buffer's int range
+    private static final int MAX_CAPACITY = 1 << 24;
+
+    private final Path path;
+    // Guarded by this
+    private FileChannel channel;
+    private MappedByteBuffer table;
+    // Names too long for a slot, back to back; opened when the first one is stored
+    private FileChannel names;
+    private int capacity;
+    private int count;
+
+    /**
+     * Opens the store at the path, creating an empty one if there is none
+     */
+    public ProfileStore(Path path) throws IOException {
+        this.path = path;
+        if (Files.exists(path)) {
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            table = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            if (table.getInt(0) != MAGIC || table.getInt(4) < 1 || table.getInt(4) > VERSION) {
+                channel.close();
+                throw new IOException("Not a profile store: " + path);
+            }
+            table.putInt(4, VERSION);
+            if (Files.exists(namesPath())) {
+                names = FileChannel.open(namesPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            capacity = table.getInt(8);
+            count = table.getInt(12);
+        } else {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            create(INITIAL_CAPACITY);
+            Files.move(temp(), path, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * The stored profile for the name, or null if the player has none yet
+     */
+    public synchronized Profiles.Profile get(String name) {
+        byte[] key = key(name);
+        int slot = find(key);
+        return used(slot) ? read(slot) : null;
+    }
+
+    /**
+     * Inserts or replaces the profile with the same name
+     */
+    public synchronized void put(Profiles.Profile profile) throws IOException {
+        byte[] key = key(profile.name);
+        int slot = find(key);
+        if (!used(slot)) {
+            if ((count + 1) * 4L > capacity * 3L) {
+                grow();
+                slot = find(key);
+            }
+            count++;
+            table.putInt(12, count);
+            writeName(slot, key);
+        }
+        write(slot, profile);
+    }
+
+    /**
+     * Hands every stored profile to the consumer, in table order
+     */
+    public synchronized void forEach(Consumer<Profiles.Profile> consumer) {
+        for (int slot = 0; slot < capacity; slot++) {
+            if (used(slot)) consumer.accept(read(slot));
+        }
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        table.force();
+        channel.close();
+        if (names != null) names.close();
+    }
+
+    // The slot holding the key, or the empty slot where it would go
+    private int find(byte[] key) {
+        int mask = capacity - 1;
+        int slot = hash(key) & mask;
+        while (used(slot) && !matches(slot, key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean used(int slot) {
+        return table.get(offset(slot)) != 0;
+    }
+
+    private boolean matches(int slot, byte[] key) {
+        int base = offset(slot);
+        if (key.length <= NAME_CAPACITY) {
+            if (table.get(base) != key.length + 1) return false;
+            for (int i = 0; i < key.length; i++) {
+                if (table.get(base + 1 + i) != key[i]) return false;
+            }
+            return true;
+        }
+        if (table.get(base) != LONG_NAME || table.getInt(base + 9) != key.length) return false;
+        for (int i = 0; i < PREFIX_CAPACITY; i++) {
+            if (table.get(base + 13 + i) != key[i]) return false;
+        }
+        return Arrays.equals(name(table, base), key);
+    }
+
+    // The stored name bytes of a used slot, from the table or the names file
+    private byte[] name(MappedByteBuffer from, int base) {
+        if (from.get(base) != LONG_NAME) {
+            byte[] name = new byte[from.get(base) - 1];
+            from.get(base + 1, name);
+            return name;
+        }
+        ByteBuffer name = ByteBuffer.allocate(from.getInt(base + 9));
+        long at = from.getLong(base + 1);
+        try {
+            while (name.hasRemaining()) {
+                if (names.read(name, at + name.position()) < 0) throw new EOFException("Names file cut short");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return name.array();
+    }
+
+    private Profiles.Profile read(int slot) {
+        int base = offset(slot);
+        byte[] name = name(table, base);
+        int rating = table.getInt(base + 60);
+        return new Profiles.Profile(new String(name, StandardCharsets.UTF_8),
+                table.getInt(base + 48), table.getInt(base + 52), table.getInt(base + 56),
+                rating == 0 ? Profiles.INITIAL_RATING : rating);
+    }
+
+    private void write(int slot, Profiles.Profile profile) {
+        int base = offset(slot);
+        table.putInt(base + 48, profile.wins);
+        table.putInt(base + 52, profile.losses);
+        table.putInt(base + 56, profile.draws);
+        table.putInt(base + 60, profile.rating);
+    }
+
+    // Claims an empty slot for the name; the length goes last, since it is what marks the slot as used
+    private void writeName(int slot, byte[] key) throws IOException {
+        int base = offset(slot);
+        if (key.length <= NAME_CAPACITY) {
+            table.put(base + 1, key);
+            table.put(base, (byte) (key.length + 1));
+            return;
+        }
+        if (names == null) {
+            names = FileChannel.open(namesPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        long at = names.size();
+        ByteBuffer name = ByteBuffer.wrap(key);
+        while (name.hasRemaining()) {
+            names.write(name, at + name.position());
+        }
+        table.putLong(base + 1, at);
+        table.putInt(base + 9, key.length);
+        table.put(base + 13, key, 0, PREFIX_CAPACITY);
+        table.put(base, LONG_NAME);
+    }
+
+    // Rehashes into a file twice the size and swaps it in
+    private void grow() throws IOException {
+        if (capacity == MAX_CAPACITY) throw new IOException("Profile store full: " + path);
+        FileChannel oldChannel = channel;
+        MappedByteBuffer oldTable = table;
+        int oldCapacity = capacity, oldCount = count;
+        create(capacity * 2);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int base = offset(slot);
+            byte length = oldTable.get(base);
+            if (length == 0) continue;
+            // Long names stay where they are in the names file; only their slot moves
+            int to = offset(find(name(oldTable, base)));
+            for (int i = 1; i < SLOT_SIZE; i++) {
+                table.put(to + i, oldTable.get(base + i));
+            }
+            table.put(to, length);
+        }
+        count = oldCount;
+        table.putInt(12, count);
+        table.force();
+        Files.move(temp(), path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        oldChannel.close();
+    }
+
+    // Maps a new empty table of the given capacity in the temp file and makes it the current one
+    private void create(int newCapacity) throws IOException {
+        channel = FileChannel.open(temp(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        table = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+        table.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, newCapacity).putInt(12, 0);
+        capacity = newCapacity;
+        count = 0;
+    }
+
+    private Path namesPath() {
+        return path.resolveSibling(path.getFileName() + ".names");
+    }
+
+    private Path temp() {
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static byte[] key(String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // FNV-1a, then mixed so linear probing sees well-spread low bits
+    private static int hash(byte[] key) {
+        int h = 0x811C9DC5;
+        for (byte b : key) {
+            h = (h ^ (b & 0xFF)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,169 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Authoritative player statistics, keyed by the name a player connects with.
+ * Profiles live in a {@link ProfileStore}; a bounded LRU cache in front of it keeps the players who are
+ * online off the disk, and a top-N leaderboard is updated as each result is recorded, so reading it
+ * never scans the table. Wins only ever go up, so a player who falls off the board can only get back on
+ * by winning, which is exactly when it is re-checked.
+ * <p>
+ * Every player also has an Elo rating, moved by each game between two rated players, for matchmaking.
+ */
+public class Profiles implements Closeable {
+    public static final int INITIAL_RATING = 1200;
+    // Elo K-factor: the most a single game can move a rating
+    private static final int K_FACTOR = 32;
+
+    /**
+     * One player's record; immutable, replaced on every result
+     */
+    public static final class Profile {
+        public final String name;
+        public final int wins, losses, draws;
+        public final int rating;
+
+        public Profile(String name, int wins, int losses, int draws, int rating) {
+            this.name = name;
+            this.wins = wins;
+            this.losses = losses;
+            this.draws = draws;
+            this.rating = rating;
+        }
+
+        public int games() {
+            return wins + losses + draws;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + wins + " " + losses + " " + draws + " " + rating;
+        }
+    }
+
+    // Most wins first, then by name so equal records still have one order
+    private static final Comparator<Profile> RANKING =
+            Comparator.comparingInt((Profile p) -> -p.wins).thenComparing(p -> p.name);
+
+    private final ProfileStore store;
+    private final int topSize;
+    // Guarded by this
+    private final Map<String, Profile> cache;
+    private final TreeSet<Profile> top = new TreeSet<>(RANKING);
+
+    /**
+     * @param store     where profiles are kept
+     * @param cacheSize most profiles held in memory
+     * @param topSize   leaderboard length
+     */
+    public Profiles(ProfileStore store, int cacheSize, int topSize) {
+        this.store = store;
+        this.topSize = topSize;
+        this.cache = new LinkedHashMap<String, Profile>(cacheSize * 4 / 3 + 1, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Profile> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        // The only full scan: seed the leaderboard once at startup
+        store.forEach(this::rank);
+    }
+
+    /**
+     * The player's record, all zeros for a name never seen before
+     */
+    public synchronized Profile get(String name) {
+        Profile profile = cache.get(name);
+        if (profile == null) {
+            profile = store.get(name);
+            if (profile == null) profile = new Profile(name, 0, 0, 0, INITIAL_RATING);
+            cache.put(name, profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Records a finished game for both players and moves their ratings
+     *
+     * @param winner 1 if the first player won, 2 if the second did, 0 for a draw
+     */
+    public synchronized void recordGame(String first, String second, int winner) {
+        // Someone playing under their own name twice gains nothing either way
+        if (first.equals(second)) return;
+        Profile a = get(first), b = get(second);
+        // Elo: the first player's expected score against the second, and what it actually scored
+        double expected = 1 / (1 + Math.pow(10, (b.rating - a.rating) / 400.0));
+        double scored = winner == 1 ? 1 : winner == 2 ? 0 : 0.5;
+        int change = (int) Math.round(K_FACTOR * (scored - expected));
+        // Ratings stay positive, since a stored 0 means unrated
+        update(first, a, new Profile(a.name, a.wins + (winner == 1 ? 1 : 0), a.losses + (winner == 2 ? 1 : 0),
+                a.draws + (winner == 0 ? 1 : 0), Math.max(1, a.rating + change)));
+        update(second, b, new Profile(b.name, b.wins + (winner == 2 ? 1 : 0), b.losses + (winner == 1 ? 1 : 0),
+                b.draws + (winner == 0 ? 1 : 0), Math.max(1, b.rating - change)));
+    }
+
+    /**
+     * Records a finished game for one player only, e.g. one played against a bot; the rating stays put,
+     * since the bot has none to measure it against
+     *
+     * @param result Protocol.WIN, LOSE or DRAW from the player's side
+     */
+    public synchronized void recordResult(String name, int result) {
+        Profile p = get(name);
+        update(name, p, new Profile(p.name, p.wins + (result == Protocol.WIN ? 1 : 0),
+                p.losses + (result == Protocol.LOSE ? 1 : 0), p.draws + (result == Protocol.DRAW ? 1 : 0), p.rating));
+    }
+
+    private void update(String name, Profile old, Profile updated) {
+        cache.put(name, updated);
+        try {
+            store.put(updated);
+        } catch (IOException e) {
+            // Keep the cached result; the game must not fail over a full disk
+            e.printStackTrace();
+        }
+        top.remove(old);
+        rank(updated);
+    }
+
+    private void rank(Profile profile) {
+        if (top.size() < topSize) {
+            top.add(profile);
+        } else if (RANKING.compare(profile, top.last()) < 0) {
+            top.pollLast();
+            top.add(profile);
+        }
+    }
+
+    /**
+     * The best players, best first
+     */
+    public synchronized List<Profile> leaderboard() {
+        return new ArrayList<>(top);
+    }
+
+    /**
+     * Renders the leaderboard as "rank name wins losses draws" lines
+     */
+    public String leaderboardText() {
+        StringBuilder text = new StringBuilder();
+        int rank = 1;
+        for (Profile profile : leaderboard()) {
+            text.append(rank++).append(' ').append(profile).append('\n');
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
@@ -0,0 +1,636 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec for the wire protocol, shared by server and client.
+ * Lines are decoded straight from bytes into a reusable {@link Frame}; fixed server lines are pre-encoded once.
+ * <p>
+ * Besides the newline-delimited text form there is a compact binary form: a one-byte opcode, plus a cell
+ * index for moves and updates (two bytes, big-endian, on boards with more than 256 cells). Binary opcodes
+ * are control bytes that no text line starts with, so both forms can share a stream and readers never need
+ * to know which one the peer is using. A server only sends binary to a client that asked for it with
+ * "BINARY 1" after its name line.
+ */
+public final class Protocol {
+    // Opcodes
+    public static final int INVALID = 0;
+    public static final int START = 1;
+    public static final int MOVE = 2;
+    public static final int UPDATE = 3;
+    public static final int MESSAGE = 4;
+    public static final int GAMEOVER = 5;
+    public static final int RESET = 6;
+    public static final int RESTART = 7;
+    public static final int END = 8;
+    public static final int OPPONENT_LEFT = 9;
+    public static final int DISCONNECT = 10;
+    public static final int BINARY = 11;
+    public static final int SESSION = 12;
+    public static final int RESUME = 13;
+    public static final int SNAPSHOT = 14;
+    public static final int STATS = 15;
+    public static final int SPECTATE = 16;
+    public static final int HANDOFF = 17;
+    public static final int PING = 18;
+    public static final int PONG = 19;
+
+    /** Highest binary protocol version this codec speaks */
+    public static final int BINARY_VERSION = 1;
+
+    // GAMEOVER results
+    public static final int WIN = 1;
+    public static final int LOSE = 2;
+    public static final int DRAW = 3;
+
+    // Well-known MESSAGE texts; 0 means free text
+    public static final int MSG_YOUR_TURN = 1;
+    public static final int MSG_WAIT = 2;
+    public static final int MSG_VALID_MOVE = 3;
+    public static final int MSG_OPPONENT_MOVED = 4;
+
+    private static final String[] MESSAGES = {
+            null,
+            "Your turn to move.",
+            "Wait for your opponent to move.",
+            "Valid move, wait for your opponent.",
+            "Your opponent has moved, now is your turn."
+    };
+    private static final byte[][] MESSAGE_BYTES = new byte[MESSAGES.length][];
+
+    private static final byte[][] KEYWORDS = new byte[PONG + 1][];
+
+    private static final byte[] END_TEXT = "Game Ends. One player chose not to continue.".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] OPPONENT_LEFT_TEXT = "Game Ends. One of the players left.".getBytes(StandardCharsets.UTF_8);
+
+    // Binary opcodes; 0x0A and 0x0D are skipped so a binary byte is never mistaken for a line ending
+    private static final byte B_MOVE = 0x01;
+    private static final byte B_RESTART_YES = 0x02;
+    private static final byte B_RESTART_NO = 0x03;
+    private static final byte B_DISCONNECT = 0x04;
+    private static final byte B_UPDATE_X = 0x05;
+    private static final byte B_UPDATE_O = 0x06;
+    private static final byte B_YOUR_TURN = 0x07;
+    private static final byte B_WAIT = 0x08;
+    private static final byte B_VALID_MOVE = 0x09;
+    private static final byte B_OPPONENT_MOVED = 0x0B;
+    private static final byte B_WIN = 0x0C;
+    private static final byte B_LOSE = 0x0E;
+    private static final byte B_DRAW = 0x0F;
+    private static final byte B_RESET = 0x10;
+    private static final byte B_END = 0x11;
+    private static final byte B_OPPONENT_LEFT = 0x12;
+    private static final byte B_MOVE_WIDE = 0x13;
+    private static final byte B_UPDATE_X_WIDE = 0x14;
+    private static final byte B_UPDATE_O_WIDE = 0x15;
+
+    // Fixed server lines, sent with Server.Player#send in whichever form the client negotiated
+    public static final int YOUR_TURN = 0;
+    public static final int WAIT = 1;
+    public static final int VALID_MOVE = 2;
+    public static final int OPPONENT_MOVED = 3;
+    public static final int GAMEOVER_WIN = 4;
+    public static final int GAMEOVER_LOSE = 5;
+    public static final int GAMEOVER_DRAW = 6;
+    public static final int RESET_LINE = 7;
+    public static final int END_LINE = 8;
+    public static final int OPPONENT_LEFT_LINE = 9;
+
+    private static final byte[][] TEXT_LINES = {
+            line("MESSAGE " + MESSAGES[MSG_YOUR_TURN]),
+            line("MESSAGE " + MESSAGES[MSG_WAIT]),
+            line("MESSAGE " + MESSAGES[MSG_VALID_MOVE]),
+            line("MESSAGE " + MESSAGES[MSG_OPPONENT_MOVED]),
+            line("GAMEOVER WIN You win!"),
+            line("GAMEOVER LOSE You lose!"),
+            line("GAMEOVER DRAW It's a draw!"),
+            line("RESET"),
+            line("END Game Ends. One player chose not to continue."),
+            line("OPPONENT_LEFT Game Ends. One of the players left.")
+    };
+    private static final byte[][] BINARY_LINES = {
+            {B_YOUR_TURN}, {B_WAIT}, {B_VALID_MOVE}, {B_OPPONENT_MOVED}, {B_WIN}, {B_LOSE}, {B_DRAW},
+            {B_RESET}, {B_END}, {B_OPPONENT_LEFT}
+    };
+
+    /** Sent by a client after its name to ask for binary frames, and echoed by a server that agrees */
+    public static final byte[] BINARY_HANDSHAKE = line("BINARY " + BINARY_VERSION);
+    /** Sent by a cluster node to a player it gives back to the router; never reaches the client */
+    public static final byte[] HANDOFF_REQUEST = line("HANDOFF");
+    /** Sent by a server to a connection that has gone quiet; a live client answers with PONG */
+    public static final byte[] PING_REQUEST = line("PING");
+    public static final byte[] PONG_REPLY = line("PONG");
+    private static final byte[] RESTART_YES_TEXT = line("RESTART yes");
+    private static final byte[] RESTART_NO_TEXT = line("RESTART no");
+    private static final byte[] DISCONNECT_TEXT = line("DISCONNECT");
+    private static final byte[] RESTART_YES_BINARY = {B_RESTART_YES};
+    private static final byte[] RESTART_NO_BINARY = {B_RESTART_NO};
+    private static final byte[] DISCONNECT_BINARY = {B_DISCONNECT};
+
+    /** Longest frame {@link #encodeUpdate} or {@link #encodeMove} can produce */
+    public static final int MAX_UPDATE_LENGTH = 32;
+
+    static {
+        String[] names = {null, "START", "MOVE", "UPDATE", "MESSAGE", "GAMEOVER", "RESET", "RESTART", "END",
+                "OPPONENT_LEFT", "DISCONNECT", "BINARY", "SESSION", "RESUME", "SNAPSHOT", "STATS", "SPECTATE",
+                "HANDOFF", "PING", "PONG"};
+        for (int i = 1; i < names.length; i++) {
+            KEYWORDS[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        for (int i = 1; i < MESSAGES.length; i++) {
+            MESSAGE_BYTES[i] = MESSAGES[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private Protocol() {
+    }
+
+    /**
+     * One decoded line. Callers keep one per reader and reuse it for every line.
+     */
+    public static final class Frame {
+        public int opcode;
+        // Board width, used to turn binary cell indexes into row and column
+        public int width = 3;
+        public int row, col;
+        // START board dimensions; 3x3 with three in a row when the server sent none
+        public int boardRows, boardCols, winLength;
+        public char mark;
+        // RESTART yes, START P1
+        public boolean flag;
+        // GAMEOVER result, MESSAGE id or BINARY version
+        public int code;
+        // SESSION and RESUME token
+        public long token;
+        // SNAPSHOT score from the receiver's side, or the STATS career record;
+        // a snapshot's cells are the text, flag says whose turn and code the result
+        public int wins, losses, draws;
+        // Free-text tail (START name, MESSAGE, END, OPPONENT_LEFT, SPECTATE name), valid until the source buffer is reused
+        public byte[] source;
+        public int textOffset, textLength;
+
+        /**
+         * Materializes the free-text tail; only used off the hot path
+         */
+        public String text() {
+            return new String(source, textOffset, textLength, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Returns the display text for a well-known MESSAGE id
+     *
+     * @param id one of the MSG_ constants
+     */
+    public static String message(int id) {
+        return MESSAGES[id];
+    }
+
+    /**
+     * Returns the pre-encoded bytes of a fixed server line
+     *
+     * @param line   one of the line constants such as {@link #YOUR_TURN}
+     * @param binary whether the client negotiated binary frames
+     */
+    public static byte[] encoded(int line, boolean binary) {
+        return binary ? BINARY_LINES[line] : TEXT_LINES[line];
+    }
+
+    /**
+     * Returns the client's RESTART answer in the given form
+     */
+    public static byte[] encodeRestart(boolean yes, boolean binary) {
+        if (binary) return yes ? RESTART_YES_BINARY : RESTART_NO_BINARY;
+        return yes ? RESTART_YES_TEXT : RESTART_NO_TEXT;
+    }
+
+    /**
+     * Returns the client's DISCONNECT in the given form
+     */
+    public static byte[] encodeDisconnect(boolean binary) {
+        return binary ? DISCONNECT_BINARY : DISCONNECT_TEXT;
+    }
+
+    /**
+     * Returns the line a reconnecting client sends instead of its name to take back its seat
+     *
+     * @param token the token from the server's SESSION line
+     */
+    public static byte[] encodeResume(long token) {
+        return line("RESUME " + token);
+    }
+
+    /**
+     * Encodes the state a resuming player needs in one line:
+     * "SNAPSHOT turn wins losses draws cells", where turn is YOUR, WAIT, WIN, LOSE or DRAW and cells holds
+     * X, O or '.' for every cell in row order. Always text; it is sent once per resume.
+     *
+     * @param yourTurn whether the receiver moves next
+     * @param result   0 while the game is on, else the receiver's WIN, LOSE or DRAW
+     */
+    public static byte[] encodeSnapshot(Board board, boolean yourTurn, int result, int wins, int losses, int draws) {
+        int cells = board.rows() * board.cols();
+        StringBuilder line = new StringBuilder(cells + 32).append("SNAPSHOT ");
+        line.append(result == WIN ? "WIN" : result == LOSE ? "LOSE" : result == DRAW ? "DRAW" : yourTurn ? "YOUR" : "WAIT");
+        line.append(' ').append(wins).append(' ').append(losses).append(' ').append(draws).append(' ');
+        for (int cell = 0; cell < cells; cell++) {
+            char mark = board.markAt(cell);
+            line.append(mark == ' ' ? '.' : mark);
+        }
+        return line(line.toString());
+    }
+
+    /**
+     * Returns the line a client sends instead of its name to watch the game the named player is in
+     */
+    public static byte[] encodeSpectate(String player) {
+        return line("SPECTATE " + player);
+    }
+
+    /**
+     * Encodes a player's career record, "STATS wins losses draws"; sent with START and after each game
+     */
+    public static byte[] encodeStats(int wins, int losses, int draws) {
+        return line("STATS " + wins + " " + losses + " " + draws);
+    }
+
+    /**
+     * Lays the cells of a decoded SNAPSHOT onto the board, replacing whatever it held
+     *
+     * @return false if the snapshot does not fit the board
+     */
+    public static boolean applySnapshot(Frame frame, Board board) {
+        if (frame.textLength != board.rows() * board.cols()) return false;
+        board.clear();
+        for (int cell = 0; cell < frame.textLength; cell++) {
+            byte mark = frame.source[frame.textOffset + cell];
+            if (mark == 'X' || mark == 'O') board.place(cell, (char) mark);
+        }
+        return true;
+    }
+
+    /**
+     * Tells a reader how long the frame starting with this byte is
+     *
+     * @param first the first byte of a frame
+     * @return the total binary frame length, or 0 if a newline-terminated text line starts here
+     */
+    public static int binaryLength(byte first) {
+        if (first >= 0x20 || first == '\n' || first == '\r' || first == 0) return 0;
+        if (first == B_MOVE_WIDE || first == B_UPDATE_X_WIDE || first == B_UPDATE_O_WIDE) return 3;
+        return first == B_MOVE || first == B_UPDATE_X || first == B_UPDATE_O ? 2 : 1;
+    }
+
+    /**
+     * Decodes one frame (a text line without terminator, or a binary frame) into the frame object
+     *
+     * @param buf    the frame bytes
+     * @param offset where the frame starts
+     * @param length frame length
+     * @param frame  receives the opcode and fields
+     * @return false if the bytes are not a well-formed command
+     */
+    public static boolean decode(byte[] buf, int offset, int length, Frame frame) {
+        frame.opcode = INVALID;
+        frame.source = buf;
+        frame.textOffset = offset + length;
+        frame.textLength = 0;
+        if (length > 0 && binaryLength(buf[offset]) == length) {
+            return decodeBinary(buf, offset, frame);
+        }
+        int end = offset + length;
+        int op = keyword(buf, offset, end);
+        if (op == INVALID) return false;
+        int pos = offset + KEYWORDS[op].length;
+        if (pos < end) {
+            if (buf[pos] != ' ') return false;
+            pos++;
+        }
+        switch (op) {
+            case MOVE:
+            case UPDATE: {
+                int row = 0, col = 0, digits = 0;
+                while (pos < end && isDigit(buf[pos])) {
+                    row = row * 10 + (buf[pos++] - '0');
+                    digits++;
+                }
+                if (digits == 0 || digits > 4 || pos >= end || buf[pos++] != ' ') return false;
+                digits = 0;
+                while (pos < end && isDigit(buf[pos])) {
+                    col = col * 10 + (buf[pos++] - '0');
+                    digits++;
+                }
+                if (digits == 0 || digits > 4) return false;
+                frame.row = row;
+                frame.col = col;
+                if (op == UPDATE) {
+                    if (pos + 2 != end || buf[pos] != ' ') return false;
+                    frame.mark = (char) buf[pos + 1];
+                } else if (pos != end) {
+                    return false;
+                }
+                break;
+            }
+            case RESTART:
+                frame.flag = end - pos == 3 && buf[pos] == 'y' && buf[pos + 1] == 'e' && buf[pos + 2] == 's';
+                break;
+            case START: {
+                if (end - pos < 2 || buf[pos] != 'P') return false;
+                frame.flag = buf[pos + 1] == '1';
+                pos = Math.min(pos + 3, end);
+                // Optional trailing " rows cols k"; servers before board sizes sent only the name
+                frame.boardRows = 3;
+                frame.boardCols = 3;
+                frame.winLength = 3;
+                int nameEnd = end;
+                int[] dims = new int[3];
+                int i = 2;
+                while (i >= 0) {
+                    int tokenEnd = nameEnd, value = 0, scale = 1;
+                    while (nameEnd > pos && isDigit(buf[nameEnd - 1]) && tokenEnd - nameEnd < 3) {
+                        value += (buf[--nameEnd] - '0') * scale;
+                        scale *= 10;
+                    }
+                    if (nameEnd == tokenEnd || nameEnd <= pos || buf[nameEnd - 1] != ' ') break;
+                    dims[i--] = value;
+                    nameEnd--;
+                }
+                if (i < 0) {
+                    frame.boardRows = dims[0];
+                    frame.boardCols = dims[1];
+                    frame.winLength = dims[2];
+                } else {
+                    nameEnd = end;
+                }
+                setText(frame, pos, nameEnd);
+                break;
+            }
+            case GAMEOVER:
+                if (startsWith(buf, pos, end, "WIN")) {
+                    frame.code = WIN;
+                } else if (startsWith(buf, pos, end, "LOSE")) {
+                    frame.code = LOSE;
+                } else if (startsWith(buf, pos, end, "DRAW")) {
+                    frame.code = DRAW;
+                } else {
+                    return false;
+                }
+                break;
+            case MESSAGE:
+                setText(frame, pos, end);
+                frame.code = 0;
+                for (int i = 1; i < MESSAGE_BYTES.length; i++) {
+                    if (equals(buf, pos, end, MESSAGE_BYTES[i])) {
+                        frame.code = i;
+                        break;
+                    }
+                }
+                break;
+            case END:
+            case OPPONENT_LEFT:
+            case SPECTATE:
+                setText(frame, pos, end);
+                break;
+            case SESSION:
+            case RESUME: {
+                long token = 0;
+                int digits = 0;
+                while (pos < end && isDigit(buf[pos]) && digits < 18) {
+                    token = token * 10 + (buf[pos++] - '0');
+                    digits++;
+                }
+                if (digits == 0 || pos != end) return false;
+                frame.token = token;
+                break;
+            }
+            case SNAPSHOT: {
+                frame.flag = false;
+                frame.code = 0;
+                if (startsWith(buf, pos, end, "YOUR ")) {
+                    frame.flag = true;
+                } else if (startsWith(buf, pos, end, "WIN ")) {
+                    frame.code = WIN;
+                } else if (startsWith(buf, pos, end, "LOSE ")) {
+                    frame.code = LOSE;
+                } else if (startsWith(buf, pos, end, "DRAW ")) {
+                    frame.code = DRAW;
+                } else if (!startsWith(buf, pos, end, "WAIT ")) {
+                    return false;
+                }
+                while (buf[pos] != ' ') pos++;
+                int[] counts = new int[3];
+                for (int i = 0; i < counts.length; i++) {
+                    int digits = 0;
+                    pos++;
+                    while (pos < end && isDigit(buf[pos]) && digits < 9) {
+                        counts[i] = counts[i] * 10 + (buf[pos++] - '0');
+                        digits++;
+                    }
+                    if (digits == 0 || pos >= end || buf[pos] != ' ') return false;
+                }
+                frame.wins = counts[0];
+                frame.losses = counts[1];
+                frame.draws = counts[2];
+                setText(frame, pos + 1, end);
+                break;
+            }
+            case STATS: {
+                int[] counts = new int[3];
+                for (int i = 0; i < counts.length; i++) {
+                    int digits = 0;
+                    while (pos < end && isDigit(buf[pos]) && digits < 9) {
+                        counts[i] = counts[i] * 10 + (buf[pos++] - '0');
+                        digits++;
+                    }
+                    if (digits == 0 || (i < 2 ? pos >= end || buf[pos++] != ' ' : pos != end)) return false;
+                }
+                frame.wins = counts[0];
+                frame.losses = counts[1];
+                frame.draws = counts[2];
+                break;
+            }
+            case BINARY: {
+                int version = 0;
+                while (pos < end && isDigit(buf[pos]) && version < 1000) {
+                    version = version * 10 + (buf[pos++] - '0');
+                }
+                frame.code = version;
+                break;
+            }
+            default:
+                break;
+        }
+        frame.opcode = op;
+        return true;
+    }
+
+    private static boolean decodeBinary(byte[] buf, int offset, Frame frame) {
+        byte op = buf[offset];
+        switch (op) {
+            case B_MOVE:
+            case B_UPDATE_X:
+            case B_UPDATE_O: {
+                int cell = buf[offset + 1] & 0xFF;
+                frame.row = cell / frame.width;
+                frame.col = cell % frame.width;
+                frame.opcode = op == B_MOVE ? MOVE : UPDATE;
+                frame.mark = op == B_UPDATE_O ? 'O' : 'X';
+                return true;
+            }
+            case B_MOVE_WIDE:
+            case B_UPDATE_X_WIDE:
+            case B_UPDATE_O_WIDE: {
+                int cell = (buf[offset + 1] & 0xFF) << 8 | (buf[offset + 2] & 0xFF);
+                frame.row = cell / frame.width;
+                frame.col = cell % frame.width;
+                frame.opcode = op == B_MOVE_WIDE ? MOVE : UPDATE;
+                frame.mark = op == B_UPDATE_O_WIDE ? 'O' : 'X';
+                return true;
+            }
+            case B_RESTART_YES:
+            case B_RESTART_NO:
+                frame.opcode = RESTART;
+                frame.flag = op == B_RESTART_YES;
+                return true;
+            case B_DISCONNECT:
+                frame.opcode = DISCONNECT;
+                return true;
+            case B_YOUR_TURN:
+            case B_WAIT:
+            case B_VALID_MOVE:
+            case B_OPPONENT_MOVED:
+                frame.opcode = MESSAGE;
+                frame.code = op == B_YOUR_TURN ? MSG_YOUR_TURN : op == B_WAIT ? MSG_WAIT
+                        : op == B_VALID_MOVE ? MSG_VALID_MOVE : MSG_OPPONENT_MOVED;
+                return true;
+            case B_WIN:
+            case B_LOSE:
+            case B_DRAW:
+                frame.opcode = GAMEOVER;
+                frame.code = op == B_WIN ? WIN : op == B_LOSE ? LOSE : DRAW;
+                return true;
+            case B_RESET:
+                frame.opcode = RESET;
+                return true;
+            case B_END:
+            case B_OPPONENT_LEFT:
+                // Binary END carries no text; hand back the standard wording
+                frame.opcode = op == B_END ? END : OPPONENT_LEFT;
+                frame.source = op == B_END ? END_TEXT : OPPONENT_LEFT_TEXT;
+                frame.textOffset = 0;
+                frame.textLength = frame.source.length;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Writes an update into dst: "UPDATE row col mark\n", or opcode plus cell index in binary form
+     *
+     * @return the number of bytes written
+     */
+    public static int encodeUpdate(byte[] dst, int row, int col, char mark, boolean binary, int width) {
+        if (binary) {
+            int cell = row * width + col;
+            if (cell > 0xFF) {
+                dst[0] = mark == 'O' ? B_UPDATE_O_WIDE : B_UPDATE_X_WIDE;
+                return encodeWideCell(dst, cell);
+            }
+            dst[0] = mark == 'O' ? B_UPDATE_O : B_UPDATE_X;
+            dst[1] = (byte) cell;
+            return 2;
+        }
+        return encodeText(dst, UPDATE, row, col, mark);
+    }
+
+    /**
+     * Writes a client move into dst: "MOVE row col\n", or opcode plus cell index in binary form
+     *
+     * @return the number of bytes written
+     */
+    public static int encodeMove(byte[] dst, int row, int col, boolean binary, int width) {
+        if (binary) {
+            int cell = row * width + col;
+            if (cell > 0xFF) {
+                dst[0] = B_MOVE_WIDE;
+                return encodeWideCell(dst, cell);
+            }
+            dst[0] = B_MOVE;
+            dst[1] = (byte) cell;
+            return 2;
+        }
+        return encodeText(dst, MOVE, row, col, ' ');
+    }
+
+    private static int encodeWideCell(byte[] dst, int cell) {
+        dst[1] = (byte) (cell >>> 8);
+        dst[2] = (byte) cell;
+        return 3;
+    }
+
+    private static int encodeText(byte[] dst, int op, int row, int col, char mark) {
+        byte[] keyword = KEYWORDS[op];
+        System.arraycopy(keyword, 0, dst, 0, keyword.length);
+        int pos = keyword.length;
+        dst[pos++] = ' ';
+        pos = writeInt(dst, pos, row);
+        dst[pos++] = ' ';
+        pos = writeInt(dst, pos, col);
+        if (op == UPDATE) {
+            dst[pos++] = ' ';
+            dst[pos++] = (byte) mark;
+        }
+        dst[pos++] = '\n';
+        return pos;
+    }
+
+    private static int writeInt(byte[] dst, int pos, int value) {
+        if (value >= 10) {
+            pos = writeInt(dst, pos, value / 10);
+        }
+        dst[pos++] = (byte) ('0' + value % 10);
+        return pos;
+    }
+
+    private static int keyword(byte[] buf, int pos, int end) {
+        for (int op = START; op < KEYWORDS.length; op++) {
+            byte[] keyword = KEYWORDS[op];
+            int after = pos + keyword.length;
+            if (after <= end && (after == end || buf[after] == ' ') && regionEquals(buf, pos, keyword)) {
+                return op;
+            }
+        }
+        return INVALID;
+    }
+
+    private static void setText(Frame frame, int from, int end) {
+        frame.textOffset = from;
+        frame.textLength = end - from;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean startsWith(byte[] buf, int pos, int end, String word) {
+        if (end - pos < word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (buf[pos + i] != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean equals(byte[] buf, int pos, int end, byte[] expected) {
+        return end - pos == expected.length && regionEquals(buf, pos, expected);
+    }
+
+    private static boolean regionEquals(byte[] buf, int pos, byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (buf[pos + i] != expected[i]) return false;
+        }
+        return true;
+    }
+
+    private static byte[] line(String text) {
+        return (text + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
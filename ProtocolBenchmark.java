@@ -0,0 +1,124 @@
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compares the {@link Protocol} codec with the split-based parsing it replaced.
+ * Decodes a mix of the lines a game actually carries and encodes UPDATE lines both ways, printing
+ * operations per second and bytes allocated per operation for each.
+ */
+public class ProtocolBenchmark {
+    private static final String[] LINES = {
+            "MOVE 1 2",
+            "UPDATE 1 2 X",
+            "MESSAGE Your turn to move.",
+            "MESSAGE Valid move, wait for your opponent.",
+            "UPDATE 0 0 O",
+            "MOVE 2 0",
+            "GAMEOVER WIN You win!",
+            "RESTART yes"
+    };
+
+    private static final String[] MESSAGES = {
+            null,
+            "Your turn to move.",
+            "Wait for your opponent to move.",
+            "Valid move, wait for your opponent.",
+            "Your opponent has moved, now is your turn."
+    };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // Keeps the JIT from dropping work whose result is never used
+    private static long sink;
+
+    /**
+     * @param args optional operation count per measurement (default 5000000)
+     */
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        byte[][] lines = new byte[LINES.length][];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = LINES[i].getBytes(StandardCharsets.UTF_8);
+        }
+        // The first round warms up the JIT; the last one is the figure to read
+        for (int round = 0; round < 3; round++) {
+            System.out.println("round " + (round + 1));
+            measure("decode split", operations, () -> {
+                for (int i = 0; i < operations; i++) {
+                    byte[] line = lines[i % lines.length];
+                    sink += splitDecode(new String(line, 0, line.length, StandardCharsets.UTF_8));
+                }
+            });
+            Protocol.Frame frame = new Protocol.Frame();
+            measure("decode Protocol", operations, () -> {
+                for (int i = 0; i < operations; i++) {
+                    byte[] line = lines[i % lines.length];
+                    Protocol.decode(line, 0, line.length, frame);
+                    sink += frame.opcode + frame.row + frame.col + frame.code;
+                }
+            });
+            measure("encode concat", operations, () -> {
+                for (int i = 0; i < operations; i++) {
+                    byte[] encoded = ("UPDATE " + i % 3 + " " + i / 3 % 3 + " " + (i % 2 == 0 ? 'X' : 'O') + "\n")
+                            .getBytes(StandardCharsets.UTF_8);
+                    sink += encoded.length;
+                }
+            });
+            byte[] scratch = new byte[Protocol.MAX_UPDATE_LENGTH];
+            measure("encode Protocol", operations, () -> {
+                for (int i = 0; i < operations; i++) {
+                    sink += Protocol.encodeUpdate(scratch, i % 3, i / 3 % 3, i % 2 == 0 ? 'X' : 'O', false, 3);
+                }
+            });
+        }
+        System.out.println("checksum " + sink);
+    }
+
+    private static void measure(String name, int operations, Runnable work) {
+        long thread = currentThreadId();
+        long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        work.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+        System.out.printf("  %-16s %,14.0f ops/s %8.1f bytes/op%n",
+                name, operations / (elapsed / 1e9), allocated / (double) operations);
+    }
+
+    // Thread.threadId() where it exists (Java 19+, which deprecates getId()), found the way Server finds
+    // virtual threads so the tree still builds on older JDKs
+    @SuppressWarnings("deprecation")
+    private static long currentThreadId() {
+        try {
+            return (long) Thread.class.getMethod("threadId").invoke(Thread.currentThread());
+        } catch (ReflectiveOperationException e) {
+            return Thread.currentThread().getId();
+        }
+    }
+
+    // The parsing the server and client did before the codec: split the line, then compare and parse Strings
+    private static int splitDecode(String line) {
+        String[] parts = line.split(" ");
+        switch (parts[0]) {
+            case "MOVE":
+                return Integer.parseInt(parts[1]) + Integer.parseInt(parts[2]);
+            case "UPDATE":
+                return Integer.parseInt(parts[1]) + Integer.parseInt(parts[2]) + parts[3].charAt(0);
+            case "MESSAGE": {
+                String message = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length));
+                for (int id = 1; id < MESSAGES.length; id++) {
+                    if (message.equals(MESSAGES[id])) return id;
+                }
+                return 0;
+            }
+            case "GAMEOVER":
+                return parts[1].equals("WIN") ? 1 : parts[1].equals("LOSE") ? 2 : 3;
+            case "RESTART":
+                return parts[1].equals("yes") ? 1 : 0;
+            default:
+                return -1;
+        }
+    }
+}
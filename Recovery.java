@@ -0,0 +1,204 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds the games that were still open when the server stopped.
+ * The state of every open game is kept as a checkpoint file tagged with the journal index it covers;
+ * recovery loads the checkpoint and replays only the journal tail after it, dropping games as their END
+ * records go by. Finished games are never held, so the work scales with open games and recent traffic,
+ * not with the whole history.
+ */
+public class Recovery {
+    private static final int CHECKPOINT_MAGIC = 0x54545443;
+    // Version 2 added the running score
+    private static final int CHECKPOINT_VERSION = 2;
+
+    /**
+     * Everything needed to put one room back as it was
+     */
+    public static final class OpenGame {
+        public final long gameId;
+        public final Board board;
+        public final String[] names = new String[2];
+        public final long[] tokens = new long[2];
+        public boolean gameOver;
+        // 1 or 2 for the last game's winner, 0 for a draw
+        public int winner;
+        // RESTART answers while gameOver: 0 none yet, 1 yes, 2 no
+        public final int[] choices = new int[2];
+        // Games won by each seat and drawn, over the life of the room
+        public final int[] wins = new int[2];
+        public int draws;
+
+        OpenGame(long gameId, Board board) {
+            this.gameId = gameId;
+            this.board = board;
+        }
+
+        /**
+         * P1 plays X and moves first, so the move count says whose turn it is
+         */
+        public boolean p1Turn() {
+            return board.moveCount() % 2 == 0;
+        }
+    }
+
+    private final Map<Long, OpenGame> games = new HashMap<>();
+    // First journal record not yet applied
+    private long nextIndex = 0;
+
+    /**
+     * Games still open as of the last record applied
+     */
+    public Collection<OpenGame> openGames() {
+        return games.values();
+    }
+
+    /**
+     * Applies one journal record
+     */
+    public void apply(GameJournal.Record record) {
+        nextIndex = record.index + 1;
+        OpenGame game = games.get(record.gameId);
+        switch (record.type) {
+            case GameJournal.START:
+                games.put(record.gameId, new OpenGame(record.gameId, new Board(record.row, record.col, record.value)));
+                break;
+            case GameJournal.PLAYER:
+                if (game == null) break;
+                game.names[record.seat - 1] = record.text;
+                game.tokens[record.seat - 1] = record.token;
+                break;
+            case GameJournal.NAME:
+                // The rest of a name too long for its PLAYER record
+                if (game == null || game.names[record.seat - 1] == null) break;
+                game.names[record.seat - 1] += record.text;
+                break;
+            case GameJournal.MOVE:
+                if (game == null) break;
+                game.board.place(game.board.cell(record.row, record.col), record.seat == 1 ? 'X' : 'O');
+                break;
+            case GameJournal.GAMEOVER:
+                if (game == null) break;
+                game.gameOver = true;
+                game.winner = record.seat;
+                if (record.seat == 0) game.draws++; else game.wins[record.seat - 1]++;
+                game.choices[0] = 0;
+                game.choices[1] = 0;
+                break;
+            case GameJournal.RESTART:
+                if (game == null) break;
+                game.choices[record.seat - 1] = record.value != 0 ? 1 : 2;
+                break;
+            case GameJournal.RESET:
+                if (game == null) break;
+                game.board.clear();
+                game.gameOver = false;
+                game.choices[0] = 0;
+                game.choices[1] = 0;
+                break;
+            case GameJournal.END:
+                games.remove(record.gameId);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Takes over the open games rebuilt from another journal, e.g. a failed cluster node's, so the next
+     * checkpoint carries them and later records for them in this journal apply
+     */
+    public void adopt(Recovery other) {
+        games.putAll(other.games);
+    }
+
+    /**
+     * Replays every journal record after the last one applied
+     */
+    public void catchUp(JournalReader reader) throws IOException {
+        reader.forEachFrom(nextIndex, this::apply);
+    }
+
+    /**
+     * Loads a checkpoint written by {@link #save}, or starts empty if there is none
+     */
+    public static Recovery load(Path checkpoint) throws IOException {
+        Recovery recovery = new Recovery();
+        if (!Files.exists(checkpoint)) return recovery;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpoint), 1 << 16))) {
+            int version = 0;
+            if (in.readInt() != CHECKPOINT_MAGIC || (version = in.readInt()) < 1 || version > CHECKPOINT_VERSION) {
+                throw new IOException("Not a checkpoint: " + checkpoint);
+            }
+            recovery.nextIndex = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long gameId = in.readLong();
+                Board board = new Board(in.readByte(), in.readByte(), in.readByte());
+                OpenGame game = new OpenGame(gameId, board);
+                for (int seat = 0; seat < 2; seat++) {
+                    game.names[seat] = in.readUTF();
+                    game.tokens[seat] = in.readLong();
+                    game.choices[seat] = in.readByte();
+                }
+                game.gameOver = in.readBoolean();
+                game.winner = in.readByte();
+                if (version >= 2) {
+                    game.wins[0] = in.readInt();
+                    game.wins[1] = in.readInt();
+                    game.draws = in.readInt();
+                }
+                for (int cell = 0; cell < board.rows() * board.cols(); cell++) {
+                    byte mark = in.readByte();
+                    if (mark != ' ') board.place(cell, (char) mark);
+                }
+                recovery.games.put(gameId, game);
+            }
+        }
+        return recovery;
+    }
+
+    /**
+     * Writes the open games to the checkpoint file, replacing it atomically
+     */
+    public void save(Path checkpoint) throws IOException {
+        Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeLong(nextIndex);
+            out.writeInt(games.size());
+            for (OpenGame game : games.values()) {
+                Board board = game.board;
+                out.writeLong(game.gameId);
+                out.writeByte(board.rows());
+                out.writeByte(board.cols());
+                out.writeByte(board.winLength());
+                for (int seat = 0; seat < 2; seat++) {
+                    out.writeUTF(game.names[seat] != null ? game.names[seat] : "");
+                    out.writeLong(game.tokens[seat]);
+                    out.writeByte(game.choices[seat]);
+                }
+                out.writeBoolean(game.gameOver);
+                out.writeByte(game.winner);
+                out.writeInt(game.wins[0]);
+                out.writeInt(game.wins[1]);
+                out.writeInt(game.draws);
+                for (int cell = 0; cell < board.rows() * board.cols(); cell++) {
+                    out.writeByte(board.markAt(cell));
+                }
+            }
+        }
+        Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,399 @@
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Front end for a cluster of {@link Server} nodes, each started with "--node id".
+ * The router reads a client's first line, picks a node, replays the line there and splices the two
+ * sockets. New players are routed by room: every two consecutive arrivals share a room id, and room ids
+ * are consistently hashed onto the nodes, so both players of a pair land on the same node and the load
+ * spreads evenly. A RESUME goes to the node whose id ends the session token, and a SPECTATE to the node
+ * the player was sent to.
+ * <p>
+ * Until the node seats the player with START the router reads what the node sends line by line. A node
+ * where the player has waited alone sends HANDOFF, and the player is routed afresh with its opening
+ * lines replayed; a node failing does the same. After START bytes pass both ways untouched, and a node
+ * failing closes the client, whose RESUME comes back through here. The RESUME of a failed node's game
+ * goes to the node that owns the failed node's id on the ring, which takes the game over from the
+ * failed node's journal; if the failed node comes back and answers END, that node gets a try as well.
+ */
+public class Router {
+    // Ring points per node; enough for an even spread over a handful of nodes
+    private static final int VIRTUAL_NODES = 128;
+    private static final int MAX_LINE = 4096;
+    private static final int CONNECT_TIMEOUT_MILLIS = 1_000;
+    // How often nodes that are down are tried again
+    private static final long PROBE_MILLIS = 1_000;
+    // Client bytes kept for replay until the player is seated; a game client sends a few dozen
+    private static final int MAX_OPENING = 16 * 1024;
+
+    /**
+     * One server node, by its cluster id
+     */
+    static final class Node {
+        final int id;
+        final InetSocketAddress address;
+        // Guarded by the ring
+        boolean up = true;
+
+        Node(int id, InetSocketAddress address) {
+            this.id = id;
+            this.address = address;
+        }
+
+        @Override
+        public String toString() {
+            return "node " + id + " (" + address.getHostString() + ":" + address.getPort() + ")";
+        }
+    }
+
+    private final Map<Integer, Node> nodes = new TreeMap<>();
+    // Nodes that are up; guarded by itself
+    private final HashRing<Node> ring = new HashRing<>(VIRTUAL_NODES);
+    // The node taking over each failed node's games, fixed at the failure
+    private final Map<Integer, Node> adopters = new ConcurrentHashMap<>();
+    // The node each named player was sent to, for SPECTATE
+    private final Map<String, Node> nodeByPlayer = new ConcurrentHashMap<>();
+    private final AtomicLong arrivals = new AtomicLong();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "router-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param nodes the cluster's nodes by id
+     */
+    public Router(Map<Integer, InetSocketAddress> nodes) {
+        for (Map.Entry<Integer, InetSocketAddress> entry : nodes.entrySet()) {
+            Node node = new Node(entry.getKey(), entry.getValue());
+            this.nodes.put(node.id, node);
+            ring.add(node.id, node);
+        }
+        timer.scheduleWithFixedDelay(this::probe, PROBE_MILLIS, PROBE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Accepts clients until killed
+     */
+    public void serve(int port) throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Router listening on port " + port + " for " + nodes.size() + " nodes");
+            while (true) {
+                Socket client = serverSocket.accept();
+                executor.execute(() -> new Session(client).run());
+            }
+        }
+    }
+
+    private Node ringOwner(long key) {
+        synchronized (ring) {
+            return ring.get(key);
+        }
+    }
+
+    private void markDown(Node node) {
+        synchronized (ring) {
+            if (!node.up) return;
+            node.up = false;
+            ring.remove(node.id);
+        }
+        System.out.println("Lost " + node);
+    }
+
+    private boolean isUp(Node node) {
+        synchronized (ring) {
+            return node.up;
+        }
+    }
+
+    // Puts nodes that accept connections again back on the ring; runs on the timer
+    private void probe() {
+        for (Node node : nodes.values()) {
+            if (isUp(node)) continue;
+            try (Socket socket = new Socket()) {
+                socket.connect(node.address, CONNECT_TIMEOUT_MILLIS);
+            } catch (IOException e) {
+                continue;
+            }
+            synchronized (ring) {
+                node.up = true;
+                ring.add(node.id, node);
+            }
+            System.out.println("Back: " + node);
+        }
+    }
+
+    /**
+     * One client and the node it is spliced to
+     */
+    private final class Session {
+        private final Socket client;
+        private final Protocol.Frame frame = new Protocol.Frame();
+        // Protocol.RESUME, Protocol.SPECTATE, or INVALID when the first line is a player's name
+        private int kind;
+        private long token;
+        private String name;
+        // RESUME: which candidates have had their try
+        private boolean triedOrigin, triedAdopter;
+
+        // Guarded by this: the node link, and the client bytes to replay, null once the player is seated
+        private Node node;
+        private Socket link;
+        private OutputStream toNode;
+        private ByteArrayOutputStream opening = new ByteArrayOutputStream();
+
+        // Only the node reader touches these
+        private OutputStream toClient;
+        private boolean echoed = false;
+
+        Session(Socket client) {
+            this.client = client;
+        }
+
+        void run() {
+            try {
+                client.setTcpNoDelay(true);
+                toClient = new BufferedOutputStream(client.getOutputStream());
+                LineReader reader = new LineReader(client.getInputStream(), MAX_LINE);
+                int length = reader.readLine();
+                if (length < 0) return;
+                byte[] first = Arrays.copyOf(reader.buffer(), length);
+                classify(first);
+                opening.write(first);
+                opening.write('\n');
+                byte[] buffer = new byte[8192];
+                opening.write(buffer, 0, reader.drainBuffered(buffer));
+                if (!connectNext()) {
+                    toClient.write(line("END No server available."));
+                    toClient.flush();
+                    return;
+                }
+                InputStream in = client.getInputStream();
+                int n;
+                while ((n = in.read(buffer)) >= 0) {
+                    forward(buffer, n);
+                }
+            } catch (IOException e) {
+                // The client went away
+            } finally {
+                close();
+            }
+        }
+
+        // What the first line asks for: a new game, a RESUME, or a SPECTATE
+        private void classify(byte[] first) {
+            if (Protocol.decode(first, 0, first.length, frame) && frame.opcode == Protocol.RESUME) {
+                kind = Protocol.RESUME;
+                token = frame.token;
+            } else if (frame.opcode == Protocol.SPECTATE) {
+                kind = Protocol.SPECTATE;
+                name = frame.text();
+            } else {
+                kind = Protocol.INVALID;
+                name = new String(first, StandardCharsets.UTF_8);
+            }
+        }
+
+        // The node for the next connection attempt, or null if none is left
+        private Node next() {
+            if (kind == Protocol.RESUME) {
+                Node origin = nodes.get(Server.nodeOf(token));
+                if (origin == null) return null;
+                if (!triedOrigin && isUp(origin)) {
+                    triedOrigin = true;
+                    return origin;
+                }
+                triedOrigin = true;
+                Node adopter = isUp(origin) ? adopters.get(origin.id)
+                        : adopters.computeIfAbsent(origin.id, Router.this::ringOwner);
+                if (adopter == null || triedAdopter) return null;
+                triedAdopter = true;
+                return adopter;
+            }
+            if (kind == Protocol.SPECTATE) {
+                Node watched = nodeByPlayer.get(name);
+                return watched != null && isUp(watched) ? watched : ringOwner(name.hashCode());
+            }
+            // Two consecutive arrivals share a room id, so both go to the same node
+            return ringOwner(arrivals.getAndIncrement() / 2);
+        }
+
+        // Connects to the next node that answers and replays the opening there; false if none does
+        private boolean connectNext() {
+            synchronized (this) {
+                if (opening == null) return false;
+            }
+            for (int attempt = 0; attempt <= nodes.size(); attempt++) {
+                Node target = next();
+                if (target == null) return false;
+                Socket socket = new Socket();
+                try {
+                    socket.connect(target.address, CONNECT_TIMEOUT_MILLIS);
+                    socket.setTcpNoDelay(true);
+                    attach(target, socket);
+                } catch (IOException e) {
+                    closeQuietly(socket);
+                    markDown(target);
+                    continue;
+                }
+                if (kind == Protocol.INVALID) nodeByPlayer.put(name, target);
+                executor.execute(() -> readNode(socket));
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized void attach(Node target, Socket socket) throws IOException {
+            if (link != null) closeQuietly(link);
+            OutputStream out = socket.getOutputStream();
+            out.write(opening.toByteArray());
+            out.flush();
+            node = target;
+            link = socket;
+            toNode = out;
+        }
+
+        private synchronized void forward(byte[] buffer, int n) {
+            if (opening != null) {
+                if (opening.size() + n <= MAX_OPENING) {
+                    opening.write(buffer, 0, n);
+                } else {
+                    opening = null;
+                }
+            }
+            try {
+                toNode.write(buffer, 0, n);
+                toNode.flush();
+            } catch (IOException e) {
+                // The node reader sees the link fail and routes the client on
+            }
+        }
+
+        private synchronized void seated() {
+            opening = null;
+        }
+
+        // Reads from one node link: line by line until START, then raw
+        private void readNode(Socket socket) {
+            boolean rerouted = false, ended = false;
+            try {
+                InputStream in = socket.getInputStream();
+                LineReader lines = new LineReader(in, MAX_LINE);
+                Protocol.Frame reply = new Protocol.Frame();
+                int length;
+                boolean started = false;
+                while (!started && (length = lines.readLine()) >= 0) {
+                    byte[] line = lines.buffer();
+                    boolean binary = length > 0 && Protocol.binaryLength(line[0]) == length;
+                    Protocol.decode(line, 0, length, reply);
+                    if (reply.opcode == Protocol.HANDOFF) {
+                        // Routed as a new arrival, so it joins whichever node the next player goes to
+                        rerouted = true;
+                        if (!connectNext()) close();
+                        return;
+                    }
+                    if (reply.opcode == Protocol.END && kind == Protocol.RESUME && connectNext()) {
+                        rerouted = true;
+                        return;
+                    }
+                    // Each node echoes the binary handshake; the client gets the first echo only
+                    if (reply.opcode == Protocol.BINARY) {
+                        if (echoed) continue;
+                        echoed = true;
+                    }
+                    ended = reply.opcode == Protocol.END || reply.opcode == Protocol.OPPONENT_LEFT;
+                    started = reply.opcode == Protocol.START;
+                    toClient.write(line, 0, length);
+                    if (!binary) toClient.write('\n');
+                    toClient.flush();
+                }
+                if (!started) {
+                    // The node went away before seating the player: unless it said why, try another
+                    if (!ended) {
+                        rerouted = connectNext();
+                    }
+                    return;
+                }
+                seated();
+                byte[] buffer = new byte[8192];
+                int n = lines.drainBuffered(buffer);
+                while (n >= 0) {
+                    toClient.write(buffer, 0, n);
+                    toClient.flush();
+                    n = in.read(buffer);
+                }
+            } catch (IOException e) {
+                // The node or the client went away
+            } finally {
+                closeQuietly(socket);
+                if (!rerouted) close();
+            }
+        }
+
+        private void close() {
+            closeQuietly(client);
+            Node last;
+            synchronized (this) {
+                if (link != null) closeQuietly(link);
+                last = node;
+            }
+            if (name != null && last != null && kind == Protocol.INVALID) {
+                nodeByPlayer.remove(name, last);
+            }
+        }
+    }
+
+    private static byte[] line(String text) {
+        return (text + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    /**
+     * Starts the router.
+     *
+     * @param args "--nodes 1=host:port,2=host:port,..." the cluster's nodes by id, as given to each
+     *             node's "--node"; "--port n" to listen on n instead of 12345
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 12345;
+        int portArg = Arrays.asList(args).indexOf("--port");
+        if (portArg >= 0 && portArg + 1 < args.length) {
+            port = Integer.parseInt(args[portArg + 1]);
+        }
+        Map<Integer, InetSocketAddress> nodes = new TreeMap<>();
+        int nodesArg = Arrays.asList(args).indexOf("--nodes");
+        if (nodesArg >= 0 && nodesArg + 1 < args.length) {
+            for (String spec : args[nodesArg + 1].split(",")) {
+                String[] idAndAddress = spec.trim().split("=", 2);
+                int colon = idAndAddress[1].lastIndexOf(':');
+                nodes.put(Integer.parseInt(idAndAddress[0]), new InetSocketAddress(
+                        idAndAddress[1].substring(0, colon), Integer.parseInt(idAndAddress[1].substring(colon + 1))));
+            }
+        }
+        if (nodes.isEmpty()) {
+            System.out.println("Usage: java Router --nodes 1=host:port,2=host:port,... [--port n]");
+            return;
+        }
+        new Router(nodes).serve(port);
+    }
+}
@@ -1,186 +1,807 @@
+import com.sun.net.httpserver.HttpServer;
+
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Server for two-player Tic-Tac-Toe.
- * Listens on port 12345, pairs two clients, manages game state.
+ * Listens on port 12345 by default, pairs incoming clients into game rooms, runs until killed.
+ * Connections arrive through a blocking thread-per-socket transport or the NIO event loops.
  */
 public class Server {
-    private ServerSocket serverSocket;
-    private Socket p1Socket, p2Socket;
-    private PrintWriter out1, out2;
-    private BufferedReader in1, in2;
-    private char[][] board = new char[3][3];
-    private boolean p1Turn = true;
-    private boolean gameOver = false;
-    private boolean waitingForRestart = false;
-    private String p1Choice = null, p2Choice = null;
-    private String p1Name, p2Name;
-
-    public Server(int port) {
-        try {
-            serverSocket = new ServerSocket(port);
+    // Thinking time per bot move on boards too big for the solved table
+    private static final long BOT_MOVE_MILLIS = 500;
+    private static final int BOT_TABLE_BITS = 20;
+    // 64 MB segments; one fsync per interval commits every record written in it
+    private static final int JOURNAL_SEGMENT_RECORDS = 1 << 20;
+    private static final long JOURNAL_SYNC_MILLIS = 10;
+    // How long a seat is held for a player whose link dropped, or who has to come back after a restart
+    private static final long RECONNECT_GRACE_MILLIS = 60_000;
+    // Profiles kept in memory, and the leaderboard length
+    private static final int PROFILE_CACHE_SIZE = 10_000;
+    private static final int LEADERBOARD_SIZE = 100;
+    // Rating gap accepted on arrival, doubling every tier step of waiting; the last tier takes anyone
+    private static final int MATCH_WINDOW = 50;
+    private static final long MATCH_TIER_MILLIS = 5_000;
+    private static final int MATCH_TIERS = 6;
+    // Frames a spectator may fall behind before it is dropped to a snapshot
+    private static final int SPECTATOR_QUEUE = 256;
+    // How often open games are checkpointed
+    private static final long CHECKPOINT_MILLIS = 30_000;
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    // Session tokens stay below 10^18 so they fit the protocol's 18 digits
+    private static final long MAX_TOKEN = 1_000_000_000_000_000_000L;
+    // Cluster node ids run from 1 to NODE_IDS - 1; a node's session tokens and game ids end in its id
+    static final int NODE_IDS = 1000;
+    // How long a cluster node lets a player wait as the only one in its queue before handing it back
+    private static final long HANDOFF_MILLIS = 2_000;
+    // Lines a connection may send: bursts of LINE_BURST, then LINE_RATE a second. Lines over the limit
+    // are dropped, and a connection with RATE_LIMIT_STRIKES dropped in a row is closed
+    private static final int LINE_BURST = 200;
+    private static final double LINE_RATE = 200;
+    private static final int RATE_LIMIT_STRIKES = 100;
+    // A connection silent this long is sent PING, and closed if it is still silent the grace after that
+    private static final long HEARTBEAT_MILLIS = 30_000;
+    private static final long HEARTBEAT_GRACE_MILLIS = 15_000;
+    // Clients that never answered a PING may predate heartbeats and are silent while their player thinks;
+    // they are only closed after this long, and TCP keepalive finds their dead links before that
+    private static final long UNANSWERED_IDLE_MILLIS = 30 * 60_000;
+    // Pause after a failed accept, so running out of descriptors does not spin the accept loop
+    static final long ACCEPT_BACKOFF_MILLIS = 100;
+
+    // Waiting players by rating; guarded by itself
+    private final Matchmaker<Player> waiting = new Matchmaker<>(MATCH_WINDOW, MATCH_TIER_MILLIS, MATCH_TIERS);
+    private final AtomicInteger activeRooms = new AtomicInteger();
+    private final ServerMetrics metrics = new ServerMetrics(activeRooms::get, this::queueDepth);
+    // Game ids start from the clock so they stay unique across restarts sharing one journal
+    private final AtomicLong nextGameId = new AtomicLong(System.currentTimeMillis() << 16);
+    private long gameIdStep = 1;
+    // Nonzero when this server is one node of a cluster behind a Router
+    private int nodeId = 0;
+    private GameJournal journal;
+    // Open games as of the last checkpoint, kept current on the timer; null without a journal
+    private Recovery recovery;
+    private Path checkpoint;
+    private Profiles profiles;
+    // Open rooms by the session token of each human seat, for RESUME
+    private final Map<Long, GameRoom> sessions = new ConcurrentHashMap<>();
+    // Open rooms by seated player name, for SPECTATE; the latest room wins when names repeat
+    private final Map<String, GameRoom> roomsByPlayer = new ConcurrentHashMap<>();
+    // Writes spectator feeds, so a slow viewer blocks only its own writer
+    private final ExecutorService spectatorWriters = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "spectator-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Heartbeat deadlines for every connection, on one thread however many there are
+    private final TimerWheel heartbeats = new TimerWheel("heartbeat-wheel", 100, 512);
+    // Sends PINGs and closes silent connections, so a peer that stopped reading blocks only its own write
+    private final ExecutorService heartbeatWriters = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "heartbeat-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SecureRandom tokens = new SecureRandom();
+    private final int rows, cols, winLength;
+    // How long a player waits for a human before a bot takes the other seat; negative disables bots
+    private long botDelayMillis = -1;
+    // Bot seating, grace windows and checkpoints
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "server-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ParallelSearch botSearch;
+
+    /**
+     * Creates a server whose rooms play on rows x cols boards with winLength in a row
+     */
+    public Server(int rows, int cols, int winLength) {
+        // Fail at startup rather than on the first match
+        new Board(rows, cols, winLength);
+        this.rows = rows;
+        this.cols = cols;
+        this.winLength = winLength;
+        timer.scheduleWithFixedDelay(this::widenSearch, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Lets a bot fill the second seat once a player has waited this long for a human
+     *
+     * @param delayMillis the wait, 0 for an immediate bot
+     */
+    public void enableBots(long delayMillis) {
+        Solver.init();
+        botSearch = new ParallelSearch(Runtime.getRuntime().availableProcessors(), BOT_MOVE_MILLIS, BOT_TABLE_BITS);
+        botDelayMillis = delayMillis;
+    }
+
+    /**
+     * Per-connection session: the name line once it has arrived, then the room it plays in
+     */
+    static class Player {
+        // Stands in for a player who is not connected; everything sent to it is dropped
+        private static final Connection DETACHED = new Connection() {
+            @Override
+            public void send(byte[] data, int offset, int length) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        final Connection connection;
+        volatile String name;
+        volatile GameRoom room;
+        // Secret a client quotes in RESUME to take its seat back; 0 for bots and until seated
+        volatile long token;
+        // Reused for every line; only the connection's reader touches it
+        final Protocol.Frame frame = new Protocol.Frame();
+        // Width of the seated board, for binary cell indexes; set by the room, copied into frame by the reader
+        volatile int width = 3;
+        // Set once the client negotiated binary frames; only ever goes from false to true
+        volatile boolean binary = false;
+        // Scratch for encoding updates; only used by the owning room's drainer
+        private final byte[] scratch = new byte[Protocol.MAX_UPDATE_LENGTH];
+
+        // Set by the room when it ends the session, so the transport reports the real cause
+        volatile ServerMetrics.DisconnectReason closeReason;
+        // Set instead of a room when the connection only watches a game
+        volatile Spectator watching;
+        // When the player joined the queue; guarded by the queue
+        long queuedAt;
+        // Rate limit state; only the connection's reader touches it
+        TokenBucket lineBudget;
+        int throttled = 0;
+        // System.nanoTime() of the last line from the client, and the pending heartbeat check
+        volatile long lastHeard;
+        volatile TimerWheel.Timeout heartbeat;
+        // Set once the client answered a PING, after which its silence means its link is dead
+        volatile boolean answersPing = false;
+        volatile boolean gone = false;
+
+        Player(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * A seat placeholder for a player who has yet to resume
+         */
+        static Player detached(String name, long token) {
+            Player player = new Player(DETACHED);
+            player.name = name;
+            player.token = token;
+            return player;
+        }
+
+        boolean isDetached() {
+            return connection == DETACHED;
+        }
+
+        /**
+         * Sends a fixed line in the form this client negotiated
+         *
+         * @param line one of the Protocol line constants
+         */
+        void send(int line) {
+            connection.send(Protocol.encoded(line, binary));
+        }
+
+        /**
+         * Sends an UPDATE in the form this client negotiated
+         *
+         * @param width the board width, for binary cell indexes
+         */
+        void sendUpdate(int row, int col, char mark, int width) {
+            int length = Protocol.encodeUpdate(scratch, row, col, mark, binary, width);
+            connection.send(scratch, 0, length);
+        }
+    }
+
+    /**
+     * Runs the blocking transport: the accept loop and one reader per socket on the executor.
+     *
+     * @param port     the port to listen on
+     * @param executor runs the accept loop and every reader
+     */
+    public void serveBlocking(int port, ExecutorService executor) {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
             System.out.println("Server listening on port " + port);
-            p1Socket = serverSocket.accept();
-            in1 = new BufferedReader(new InputStreamReader(p1Socket.getInputStream()));
-            out1 = new PrintWriter(p1Socket.getOutputStream(), true);
-            p1Name = in1.readLine();
-            System.out.println("P1 connected: " + p1Name);
-            p2Socket = serverSocket.accept();
-            in2 = new BufferedReader(new InputStreamReader(p2Socket.getInputStream()));
-            out2 = new PrintWriter(p2Socket.getOutputStream(), true);
-            p2Name = in2.readLine();
-            System.out.println("P2 connected: " + p2Name);
-            // Init board
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    board[i][j] = ' ';
+            // The accept loop runs on the executor too, so in virtual mode no platform thread blocks in accept()
+            executor.submit(() -> {
+                while (true) {
+                    Socket socket = null;
+                    try {
+                        socket = serverSocket.accept();
+                        socket.setKeepAlive(true);
+                        SocketConnection connection = new SocketConnection(socket, metrics);
+                        executor.execute(() -> connection.readLoop(this));
+                    } catch (IOException e) {
+                        if (serverSocket.isClosed()) throw e;
+                        // Out of descriptors, or a client gone before it was accepted; the listener is fine,
+                        // so pause for descriptors to come back instead of giving up on new players
+                        System.out.println("Accept failed: " + e);
+                        if (socket != null) socket.close();
+                        Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+                    }
                 }
-            }
-            // Start game
-            out1.println("START P1 " + p2Name);
-            out2.println("START P2 " + p1Name);
-            out1.println("MESSAGE Your turn to move.");
-            out2.println("MESSAGE Wait for your opponent to move.");
-            // Handle clients
-            new Thread(() -> handleClient(in1, out1, out2, true)).start();
-            new Thread(() -> handleClient(in2, out2, out1, false)).start();
+            }).get();
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private void handleClient(BufferedReader in, PrintWriter myOut, PrintWriter oppOut, boolean isP1) {
+    /**
+     * Records every game event in the journal from now on
+     */
+    public void enableJournal(GameJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Keeps every player's record by name from now on, and sends it to them with START
+     */
+    public void enableProfiles(Profiles profiles) {
+        this.profiles = profiles;
+    }
+
+    /**
+     * Runs this server as one node of a cluster behind a {@link Router}. Session tokens end in the node id,
+     * so the router sends a RESUME back to the node holding the game; a player left waiting alone is handed
+     * back to the router to try another node; and with a journal, a RESUME for a game of a node that has
+     * failed takes over that node's open games from its journal.
+     *
+     * @param nodeId 1 to NODE_IDS - 1, unique in the cluster
+     */
+    public void joinCluster(int nodeId) {
+        if (nodeId < 1 || nodeId >= NODE_IDS) {
+            throw new IllegalArgumentException("Node id must be 1 to " + (NODE_IDS - 1) + ": " + nodeId);
+        }
+        this.nodeId = nodeId;
+        // Game ids step by NODE_IDS from a base ending in the node id, so nodes never reuse each other's
+        long base = nextGameId.get();
+        nextGameId.set(base - base % NODE_IDS + nodeId);
+        gameIdStep = NODE_IDS;
+    }
+
+    /**
+     * The cluster node that issued a session token
+     */
+    static int nodeOf(long token) {
+        return (int) (token % NODE_IDS);
+    }
+
+    /**
+     * Where a cluster node keeps its journal, under the journal directory all the nodes share
+     */
+    static Path nodeJournal(Path root, int nodeId) {
+        return root.resolve("node-" + nodeId);
+    }
+
+    /**
+     * Rebuilds the rooms that were open when the journal was last written, from the checkpoint in the
+     * journal directory plus the journal tail after it. Human seats wait detached for their players to
+     * resume until the grace window runs out; bot seats get a fresh bot. Open games are checkpointed
+     * periodically from then on.
+     *
+     * @param directory the journal directory
+     */
+    public void recover(Path directory) throws IOException {
+        long started = System.nanoTime();
+        Path checkpoint = directory.resolve(CHECKPOINT_FILE);
+        Recovery recovery = Recovery.load(checkpoint);
+        JournalReader reader = new JournalReader(directory);
+        recovery.catchUp(reader);
+        int recovered = reopen(recovery);
+        System.out.printf("Recovered %d open games in %.1f ms%n", recovered, (System.nanoTime() - started) / 1e6);
+        recovery.save(checkpoint);
+        this.recovery = recovery;
+        this.checkpoint = checkpoint;
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                recovery.catchUp(reader);
+                recovery.save(checkpoint);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, CHECKPOINT_MILLIS, CHECKPOINT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes over the open games of a failed cluster node from its journal. The journal directory is
+     * renamed first, so only one node ever takes them and the failed node starts afresh if it comes
+     * back. Runs on the timer, like the checkpoints it adds to.
+     */
+    private void adopt(int node) {
+        Path directory = nodeJournal(checkpoint.getParent().getParent(), node);
+        if (node == nodeId || !Files.isDirectory(directory)) return;
         try {
-            String line;
-            while ((line = in.readLine()) != null) {
-                String[] parts = line.split(" ");
-                if (parts[0].equals("MOVE")) {
-                    if (gameOver || waitingForRestart) continue;
-                    int row = Integer.parseInt(parts[1]);
-                    int col = Integer.parseInt(parts[2]);
-                    boolean currentTurn = isP1 ? p1Turn : !p1Turn;
-                    if (board[row][col] == ' ' && currentTurn) {
-                        char mark = isP1 ? 'X' : 'O';
-                        board[row][col] = mark;
-                        // Broadcast update
-                        myOut.println("UPDATE " + row + " " + col + " " + mark);
-                        oppOut.println("UPDATE " + row + " " + col + " " + mark);
-                        if (checkWin(mark)) {
-                            myOut.println("GAMEOVER WIN You win!");
-                            oppOut.println("GAMEOVER LOSE You lose!");
-                            gameOver = true;
-                            waitingForRestart = true;
-                            p1Choice = null;
-                            p2Choice = null;
-                        } else if (isBoardFull()) {
-                            myOut.println("GAMEOVER DRAW It's a draw!");
-                            oppOut.println("GAMEOVER DRAW It's a draw!");
-                            gameOver = true;
-                            waitingForRestart = true;
-                            p1Choice = null;
-                            p2Choice = null;
-                        } else {
-                            p1Turn = !p1Turn;
-                            myOut.println("MESSAGE Valid move, wait for your opponent.");
-                            oppOut.println("MESSAGE Your opponent has moved, now is your turn.");
-                        }
-                    }
-                } else if (parts[0].equals("RESTART")) {
-                    if (!waitingForRestart) continue;
-                    String choice = parts[1];
-                    if (isP1) {
-                        p1Choice = choice;
-                    } else {
-                        p2Choice = choice;
-                    }
-                    if (p1Choice != null && p2Choice != null) {
-                        if (p1Choice.equals("yes") && p2Choice.equals("yes")) {
-                            // Reset
-                            for (int i = 0; i < 3; i++) {
-                                for (int j = 0; j < 3; j++) {
-                                    board[i][j] = ' ';
-                                }
-                            }
-                            gameOver = false;
-                            waitingForRestart = false;
-                            p1Turn = true;
-                            out1.println("RESET");
-                            out1.println("MESSAGE Your turn to move.");
-                            out2.println("RESET");
-                            out2.println("MESSAGE Wait for your opponent to move.");
-                        } else {
-                            out1.println("END Game Ends. One player chose not to continue.");
-                            out2.println("END Game Ends. One player chose not to continue.");
-                            p1Socket.close();
-                            p2Socket.close();
-                        }
-                        p1Choice = null;
-                        p2Choice = null;
-                    }
-                } else if (parts[0].equals("DISCONNECT")) {
-                    String msg = "OPPONENT_LEFT Game Ends. One of the players left.";
-                    if (isP1) {
-                        out2.println(msg);
-                    } else {
-                        out1.println(msg);
-                    }
-                    p1Socket.close();
-                    p2Socket.close();
-                    break;
-                }
+            Path taken = directory.resolveSibling(directory.getFileName() + ".adopted-" + System.currentTimeMillis());
+            Files.move(directory, taken, StandardCopyOption.ATOMIC_MOVE);
+            Recovery theirs = Recovery.load(taken.resolve(CHECKPOINT_FILE));
+            theirs.catchUp(new JournalReader(taken));
+            int adopted = reopen(theirs);
+            recovery.adopt(theirs);
+            recovery.save(checkpoint);
+            System.out.println("Adopted " + adopted + " open games of node " + node);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Opens a room for every recovered game, with its human seats detached until their players resume
+    private int reopen(Recovery from) {
+        int reopened = 0;
+        for (Recovery.OpenGame game : from.openGames()) {
+            Player[] seats = new Player[2];
+            for (int seat = 0; seat < 2; seat++) {
+                seats[seat] = Player.detached(game.names[seat], game.tokens[seat]);
             }
-            // Disconnected
-            String msg = "OPPONENT_LEFT Game Ends. One of the players left.";
-            if (isP1) {
-                if (out2 != null) out2.println(msg);
-            } else {
-                if (out1 != null) out1.println(msg);
+            GameRoom room = newRoom(seats[0], seats[1], game.board, game.gameId);
+            room.restore(game);
+            for (Player seat : seats) {
+                if (seat.token != 0) {
+                    sessions.put(seat.token, room);
+                } else if (botSearch != null) {
+                    Player bot = new Bot(ForkJoinPool.commonPool(), botSearch).player();
+                    room.resume(bot);
+                }
             }
-            if (p1Socket != null) p1Socket.close();
-            if (p2Socket != null) p2Socket.close();
-            if (serverSocket != null) serverSocket.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+            activeRooms.incrementAndGet();
+            reopened++;
         }
+        return reopened;
     }
 
-    private boolean checkWin(char mark) {
-        // Rows
-        for (int i = 0; i < 3; i++) {
-            if (board[i][0] == mark && board[i][1] == mark && board[i][2] == mark) {
-                return true;
+    /**
+     * Counters and gauges for this server, shared with the transports
+     */
+    ServerMetrics metrics() {
+        return metrics;
+    }
+
+    private int queueDepth() {
+        synchronized (waiting) {
+            return waiting.size();
+        }
+    }
+
+    /**
+     * Called by a transport when a client connects
+     *
+     * @param connection the new link
+     * @return the session the transport passes back with every line
+     */
+    Player connected(Connection connection) {
+        metrics.connectionOpened();
+        Player player = new Player(connection);
+        long now = System.nanoTime();
+        player.lastHeard = now;
+        player.lineBudget = new TokenBucket(LINE_BURST, LINE_RATE, now);
+        player.heartbeat = heartbeats.schedule(() -> checkHeartbeat(player), HEARTBEAT_MILLIS);
+        return player;
+    }
+
+    /**
+     * Pings a connection that has gone quiet and closes it if it stays quiet; otherwise re-arms for when
+     * it could next be due, so a busy connection costs one wheel entry per interval, not one per line.
+     * Only a client that has answered a PING before is held to the grace; any other is pinged once per
+     * interval and closed only after {@link #UNANSWERED_IDLE_MILLIS}. Runs on the wheel's thread.
+     */
+    private void checkHeartbeat(Player player) {
+        if (player.gone) return;
+        long silentMillis = (System.nanoTime() - player.lastHeard) / 1_000_000;
+        long limit = player.answersPing ? HEARTBEAT_MILLIS + HEARTBEAT_GRACE_MILLIS : UNANSWERED_IDLE_MILLIS;
+        long next;
+        if (silentMillis >= limit) {
+            player.closeReason = ServerMetrics.DisconnectReason.IDLE;
+            heartbeatWriters.execute(player.connection::close);
+            return;
+        } else if (silentMillis >= HEARTBEAT_MILLIS) {
+            heartbeatWriters.execute(() -> {
+                player.connection.send(Protocol.PING_REQUEST);
+                player.connection.flush();
+            });
+            next = Math.min(limit - silentMillis, player.answersPing ? HEARTBEAT_GRACE_MILLIS : HEARTBEAT_MILLIS);
+        } else {
+            next = HEARTBEAT_MILLIS - silentMillis;
+        }
+        player.heartbeat = heartbeats.schedule(() -> checkHeartbeat(player), next);
+    }
+
+    /**
+     * Called by a transport for every line a client sends
+     *
+     * @param player the sending session
+     * @param line   buffer holding the line without terminator, reused by the transport afterwards
+     * @param length line length
+     */
+    void received(Player player, byte[] line, int length) {
+        long now = System.nanoTime();
+        player.lastHeard = now;
+        if (!player.lineBudget.tryTake(now)) {
+            // Dropped rather than queued, so a flood never turns into work for the room
+            metrics.lineThrottled();
+            if (++player.throttled >= RATE_LIMIT_STRIKES) {
+                player.closeReason = ServerMetrics.DisconnectReason.RATE_LIMITED;
+                player.connection.close();
             }
+            return;
         }
-        // Columns
-        for (int j = 0; j < 3; j++) {
-            if (board[0][j] == mark && board[1][j] == mark && board[2][j] == mark) {
-                return true;
+        player.throttled = 0;
+        player.frame.width = player.width;
+        if (player.name == null) {
+            if (Protocol.decode(line, 0, length, player.frame)) {
+                // A returning client opens with RESUME instead of its name
+                if (player.frame.opcode == Protocol.RESUME) {
+                    resume(player, player.frame.token);
+                    return;
+                }
+                // A viewer opens with SPECTATE and the name of a player to watch
+                if (player.frame.opcode == Protocol.SPECTATE) {
+                    spectate(player, player.frame.text());
+                    return;
+                }
             }
+            player.name = new String(line, 0, length, StandardCharsets.UTF_8);
+            System.out.println("Player connected: " + player.name);
+            matchmake(player);
+            return;
         }
-        // Diagonals
-        if (board[0][0] == mark && board[1][1] == mark && board[2][2] == mark) {
-            return true;
+        if (!Protocol.decode(line, 0, length, player.frame)) {
+            metrics.malformedLine();
+            return;
         }
-        if (board[0][2] == mark && board[1][1] == mark && board[2][0] == mark) {
-            return true;
+        switch (player.frame.opcode) {
+            case Protocol.MOVE:
+            case Protocol.RESTART:
+            case Protocol.DISCONNECT:
+            case Protocol.BINARY:
+                break;
+            case Protocol.PONG:
+                // Heard, and from now on held to the heartbeat grace
+                player.answersPing = true;
+                return;
+            default:
+                // Server lines, or RESUME and SPECTATE after the first line, never reach a room
+                metrics.malformedLine();
+                return;
+        }
+        if (player.frame.opcode == Protocol.BINARY) {
+            // Accept any version we speak; the echo goes out before the first binary frame
+            if (player.frame.code >= Protocol.BINARY_VERSION && !player.binary) {
+                player.connection.send(Protocol.BINARY_HANDSHAKE);
+                player.connection.flush();
+                player.binary = true;
+            }
+            return;
+        }
+        GameRoom room = player.room;
+        if (room != null) {
+            room.handle(player, player.frame);
+        }
+    }
+
+    private void resume(Player player, long token) {
+        // Named until the room hands over the seat's name, so later lines are not taken for one
+        player.name = "";
+        GameRoom room = token != 0 ? sessions.get(token) : null;
+        if (room == null && recovery != null && nodeId != 0 && nodeOf(token) != nodeId) {
+            // The router only sends another node's token here once that node has failed
+            // Replaying its journal takes a while; the caller may be an event loop serving other clients
+            int origin = nodeOf(token);
+            timer.execute(() -> {
+                try {
+                    adopt(origin);
+                } finally {
+                    seat(player, token, sessions.get(token));
+                }
+            });
+            return;
+        }
+        seat(player, token, room);
+    }
+
+    // Finishes a RESUME: hands the player to the room holding its seat, or tells it the game is gone
+    private void seat(Player player, long token, GameRoom room) {
+        if (room == null) {
+            player.closeReason = ServerMetrics.DisconnectReason.QUIT;
+            player.send(Protocol.END_LINE);
+            player.connection.flush();
+            player.connection.close();
+            return;
+        }
+        player.token = token;
+        room.resume(player);
+    }
+
+    private void spectate(Player player, String target) {
+        player.name = "";
+        GameRoom room = roomsByPlayer.get(target);
+        if (room == null) {
+            player.closeReason = ServerMetrics.DisconnectReason.QUIT;
+            player.connection.send("END No game with " + target + " to watch.");
+            player.connection.flush();
+            player.connection.close();
+            return;
+        }
+        Spectator spectator = new Spectator(player.connection, spectatorWriters, SPECTATOR_QUEUE);
+        player.watching = spectator;
+        room.watch(spectator);
+    }
+
+    /**
+     * Called by a transport once a client link is gone
+     *
+     * @param player the session that went away
+     * @param reason what the transport saw, e.g. end of stream or a socket error
+     */
+    void disconnected(Player player, ServerMetrics.DisconnectReason reason) {
+        ServerMetrics.DisconnectReason recorded = player.closeReason;
+        metrics.connectionClosed(recorded != null ? recorded : reason);
+        // Before reading the room: a room binding the player right now checks this after binding
+        player.gone = true;
+        TimerWheel.Timeout heartbeat = player.heartbeat;
+        if (heartbeat != null) heartbeat.cancel();
+        Spectator spectator = player.watching;
+        if (spectator != null) {
+            GameRoom watched = spectator.room;
+            if (watched != null) watched.unwatch(spectator);
+            return;
+        }
+        GameRoom room = player.room;
+        if (room != null) {
+            // A player cut off by the network gets its seat held; one that broke the protocol does not
+            if (reason == ServerMetrics.DisconnectReason.OVERSIZED_LINE) {
+                room.leave(player);
+            } else {
+                room.drop(player);
+            }
+            return;
+        }
+        synchronized (waiting) {
+            waiting.remove(player);
         }
-        return false;
     }
 
-    private boolean isBoardFull() {
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                if (board[i][j] == ' ') {
-                    return false;
+    /**
+     * Pairs the player with the waiting player closest in rating, or queues it
+     *
+     * @param player the newly registered player
+     */
+    private void matchmake(Player player) {
+        int rating = profiles != null ? profiles.get(player.name).rating : Profiles.INITIAL_RATING;
+        Player opponent;
+        synchronized (waiting) {
+            player.queuedAt = System.nanoTime();
+            opponent = waiting.add(player, rating, player.queuedAt);
+            if (opponent == null) {
+                if (botDelayMillis >= 0) {
+                    timer.schedule(() -> fillWithBot(player), botDelayMillis, TimeUnit.MILLISECONDS);
                 }
+                return;
             }
         }
-        return true;
+        startRoom(opponent, player);
     }
 
+    /**
+     * Retries waiting players whose accepted rating gap has just grown; runs on the timer
+     */
+    private void widenSearch() {
+        List<Player> pairs = new ArrayList<>();
+        synchronized (waiting) {
+            waiting.promote(System.nanoTime(), pairs);
+        }
+        for (int i = 0; i < pairs.size(); i += 2) {
+            startRoom(pairs.get(i), pairs.get(i + 1));
+        }
+        if (nodeId != 0) {
+            handOff();
+        }
+    }
+
+    /**
+     * Gives a player that has waited alone on this node for a while back to the router, which sends it on
+     * to wherever the next player goes; runs on the timer
+     */
+    private void handOff() {
+        Player lone;
+        synchronized (waiting) {
+            if (waiting.size() != 1) return;
+            lone = waiting.players().iterator().next();
+            if (System.nanoTime() - lone.queuedAt < HANDOFF_MILLIS * 1_000_000) return;
+            waiting.remove(lone);
+        }
+        lone.closeReason = ServerMetrics.DisconnectReason.HANDED_OFF;
+        lone.connection.send(Protocol.HANDOFF_REQUEST);
+        lone.connection.close();
+    }
+
+    /**
+     * Seats a bot opposite the player if nobody else has claimed it yet
+     */
+    private void fillWithBot(Player player) {
+        synchronized (waiting) {
+            if (!waiting.remove(player)) return;
+        }
+        startRoom(player, new Bot(ForkJoinPool.commonPool(), botSearch).player());
+    }
+
+    private void startRoom(Player opponent, Player player) {
+        for (Player seat : new Player[] {opponent, player}) {
+            if (!(seat.connection instanceof Bot)) {
+                seat.token = newToken();
+            }
+        }
+        GameRoom room = newRoom(opponent, player, new Board(rows, cols, winLength), nextGameId.getAndAdd(gameIdStep));
+        for (Player seat : new Player[] {opponent, player}) {
+            if (seat.token != 0) {
+                sessions.put(seat.token, room);
+            }
+        }
+        System.out.println("Room started: " + opponent.name + " vs " + player.name
+                + " (" + activeRooms.incrementAndGet() + " active)");
+        room.start();
+    }
+
+    private GameRoom newRoom(Player p1, Player p2, Board board, long gameId) {
+        long[] seatTokens = {p1.token, p2.token};
+        String[] seatNames = {p1.name, p2.name};
+        GameRoom[] created = new GameRoom[1];
+        created[0] = new GameRoom(p1, p2, board, gameId, journal, profiles, metrics, timer, RECONNECT_GRACE_MILLIS, () -> {
+            activeRooms.decrementAndGet();
+            for (long token : seatTokens) {
+                sessions.remove(token);
+            }
+            for (String name : seatNames) {
+                roomsByPlayer.remove(name, created[0]);
+            }
+        });
+        for (String name : seatNames) {
+            if (name != null) roomsByPlayer.put(name, created[0]);
+        }
+        return created[0];
+    }
+
+    private long newToken() {
+        if (nodeId != 0) {
+            return Math.floorMod(tokens.nextLong(), MAX_TOKEN / NODE_IDS) * NODE_IDS + nodeId;
+        }
+        long token;
+        do {
+            token = Math.floorMod(tokens.nextLong(), MAX_TOKEN);
+        } while (token == 0);
+        return token;
+    }
+
+    /**
+     * Creates a virtual-thread-per-task executor, or null when the JVM has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @param args optional "--virtual" to run every connection on a virtual thread,
+     *             or "--nio" to multiplex all connections over one event loop per core;
+     *             "--board rows,cols,k" to play e.g. 15x15 Gomoku instead of 3x3;
+     *             "--bots seconds" to give a bot to anyone who waits that long for an opponent;
+     *             "--metrics port" to serve plain-text metrics on 127.0.0.1 (JMX is always on), plus the
+     *             leaderboard at /leaderboard when profiles are kept;
+     *             "--journal dir" to record every game event in memory-mapped segments under dir,
+     *             and to bring back the games that were open when the server last stopped;
+     *             "--profiles file" to keep each player's record and a leaderboard in file;
+     *             "--port n" to listen on n instead of 12345;
+     *             "--node id" to run as one node of a cluster behind a {@link Router}, keeping its journal
+     *             in dir/node-id so the other nodes can take over its games if it fails
+     */
     public static void main(String[] args) {
-        new Server(12345);
+        int[] dims = {3, 3, 3};
+        int boardArg = Arrays.asList(args).indexOf("--board");
+        if (boardArg >= 0 && boardArg + 1 < args.length) {
+            String[] parts = args[boardArg + 1].split(",");
+            for (int i = 0; i < dims.length && i < parts.length; i++) {
+                dims[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        Server server = new Server(dims[0], dims[1], dims[2]);
+        int port = 12345;
+        int portArg = Arrays.asList(args).indexOf("--port");
+        if (portArg >= 0 && portArg + 1 < args.length) {
+            port = Integer.parseInt(args[portArg + 1]);
+        }
+        int nodeArg = Arrays.asList(args).indexOf("--node");
+        if (nodeArg >= 0 && nodeArg + 1 < args.length) {
+            server.joinCluster(Integer.parseInt(args[nodeArg + 1]));
+        }
+        int botsArg = Arrays.asList(args).indexOf("--bots");
+        if (botsArg >= 0 && botsArg + 1 < args.length) {
+            server.enableBots((long) (Double.parseDouble(args[botsArg + 1]) * 1000));
+        }
+        int profilesArg = Arrays.asList(args).indexOf("--profiles");
+        if (profilesArg >= 0 && profilesArg + 1 < args.length) {
+            try {
+                server.enableProfiles(new Profiles(new ProfileStore(Paths.get(args[profilesArg + 1])),
+                        PROFILE_CACHE_SIZE, LEADERBOARD_SIZE));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        int journalArg = Arrays.asList(args).indexOf("--journal");
+        if (journalArg >= 0 && journalArg + 1 < args.length) {
+            try {
+                Path directory = Paths.get(args[journalArg + 1]);
+                if (server.nodeId != 0) {
+                    directory = nodeJournal(directory, server.nodeId);
+                }
+                server.enableJournal(new GameJournal(directory, JOURNAL_SEGMENT_RECORDS, JOURNAL_SYNC_MILLIS));
+                server.recover(directory);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+        }
+        server.metrics.registerJmx();
+        int metricsArg = Arrays.asList(args).indexOf("--metrics");
+        if (metricsArg >= 0 && metricsArg + 1 < args.length) {
+            try {
+                HttpServer http = server.metrics.serveScrape(Integer.parseInt(args[metricsArg + 1]));
+                if (server.profiles != null) {
+                    ServerMetrics.serveText(http, "/leaderboard", server.profiles::leaderboardText);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (Arrays.asList(args).contains("--nio")) {
+            try {
+                new NioTransport(server, Runtime.getRuntime().availableProcessors()).serve(port);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        ExecutorService executor = null;
+        if (Arrays.asList(args).contains("--virtual")) {
+            executor = newVirtualThreadExecutor();
+            if (executor == null) {
+                System.out.println("Virtual threads need Java 21+, using platform threads");
+            }
+        }
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool();
+        }
+        server.serveBlocking(port, executor);
     }
 }
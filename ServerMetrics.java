@@ -0,0 +1,276 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * In-process counters for the server's hot paths.
+ * Every counter is a {@link LongAdder}, so threads updating it never contend on one cache line; reads
+ * sum the stripes and are only done by JMX and the scrape endpoint. Room and queue gauges are read on
+ * demand from the server's own state.
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+    /**
+     * Why a client connection ended; each connection is counted once
+     */
+    public enum DisconnectReason {
+        // The client sent DISCONNECT or closed its socket
+        QUIT,
+        // A player said no to a rematch
+        RESTART_DECLINED,
+        // The other player in the room left
+        OPPONENT_LEFT,
+        // The socket failed or was reset
+        IO_ERROR,
+        // The client sent a line over the length limit
+        OVERSIZED_LINE,
+        // A cluster node gave a waiting player back to the router
+        HANDED_OFF,
+        // The client kept sending lines faster than its rate limit
+        RATE_LIMITED,
+        // The client stayed silent through a heartbeat PING
+        IDLE
+    }
+
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder illegalMoves = new LongAdder();
+    private final LongAdder throttledLines = new LongAdder();
+    private final LongAdder malformedLines = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder socketWrites = new LongAdder();
+    private final LongAdder[] disconnects = new LongAdder[DisconnectReason.values().length];
+    // MOVE received to resulting UPDATE flushed, nanoseconds
+    private final LatencyHistogram moveProcessing = new LatencyHistogram();
+    private final IntSupplier activeRooms, queueDepth;
+
+    // Last moves-per-second sample, so the rate covers roughly the last second
+    private long sampleTime = System.nanoTime(), sampleMoves = 0;
+    private double movesPerSecond = 0;
+
+    public ServerMetrics(IntSupplier activeRooms, IntSupplier queueDepth) {
+        this.activeRooms = activeRooms;
+        this.queueDepth = queueDepth;
+        for (int i = 0; i < disconnects.length; i++) {
+            disconnects[i] = new LongAdder();
+        }
+    }
+
+    void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    void connectionClosed(DisconnectReason reason) {
+        connectionsClosed.increment();
+        disconnects[reason.ordinal()].increment();
+    }
+
+    /**
+     * Records an applied move and how long it took from the MOVE arriving to its UPDATE being flushed
+     */
+    void moveApplied(long nanos) {
+        moves.increment();
+        moveProcessing.record(nanos);
+    }
+
+    void illegalMove() {
+        illegalMoves.increment();
+    }
+
+    void lineThrottled() {
+        throttledLines.increment();
+    }
+
+    void malformedLine() {
+        malformedLines.increment();
+    }
+
+    void bytesIn(long n) {
+        bytesIn.add(n);
+    }
+
+    void bytesOut(long n) {
+        bytesOut.add(n);
+    }
+
+    void flushed() {
+        flushes.increment();
+    }
+
+    /**
+     * Counts one write call on a client socket, i.e. one syscall
+     */
+    void socketWrite() {
+        socketWrites.increment();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    @Override
+    public int getActiveRooms() {
+        return activeRooms.getAsInt();
+    }
+
+    @Override
+    public int getMatchmakingQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    @Override
+    public synchronized double getMovesPerSecond() {
+        long now = System.nanoTime();
+        if (now - sampleTime >= 1_000_000_000L) {
+            long total = moves.sum();
+            movesPerSecond = (total - sampleMoves) * 1e9 / (now - sampleTime);
+            sampleMoves = total;
+            sampleTime = now;
+        }
+        return movesPerSecond;
+    }
+
+    @Override
+    public long getIllegalMoves() {
+        return illegalMoves.sum();
+    }
+
+    @Override
+    public long getThrottledLines() {
+        return throttledLines.sum();
+    }
+
+    @Override
+    public long getMalformedLines() {
+        return malformedLines.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getFlushes() {
+        return flushes.sum();
+    }
+
+    @Override
+    public long getSocketWrites() {
+        return socketWrites.sum();
+    }
+
+    @Override
+    public double getMoveProcessingP50Micros() {
+        return moveProcessing.percentile(50) / 1e3;
+    }
+
+    @Override
+    public double getMoveProcessingP99Micros() {
+        return moveProcessing.percentile(99) / 1e3;
+    }
+
+    @Override
+    public double getMoveProcessingP999Micros() {
+        return moveProcessing.percentile(99.9) / 1e3;
+    }
+
+    @Override
+    public long disconnects(String reason) {
+        return disconnects[DisconnectReason.valueOf(reason).ordinal()].sum();
+    }
+
+    /**
+     * Renders every metric as "name value" lines, Prometheus text style
+     */
+    public String scrape() {
+        StringBuilder text = new StringBuilder(1024);
+        line(text, "ttt_connections_active", getActiveConnections());
+        line(text, "ttt_rooms_active", getActiveRooms());
+        line(text, "ttt_matchmaking_queue_depth", getMatchmakingQueueDepth());
+        line(text, "ttt_moves_total", getMoves());
+        line(text, "ttt_moves_per_second", getMovesPerSecond());
+        line(text, "ttt_illegal_moves_total", getIllegalMoves());
+        line(text, "ttt_throttled_lines_total", getThrottledLines());
+        line(text, "ttt_malformed_lines_total", getMalformedLines());
+        line(text, "ttt_bytes_in_total", getBytesIn());
+        line(text, "ttt_bytes_out_total", getBytesOut());
+        line(text, "ttt_flushes_total", getFlushes());
+        line(text, "ttt_socket_writes_total", getSocketWrites());
+        line(text, "ttt_move_processing_micros{quantile=\"0.5\"}", getMoveProcessingP50Micros());
+        line(text, "ttt_move_processing_micros{quantile=\"0.99\"}", getMoveProcessingP99Micros());
+        line(text, "ttt_move_processing_micros{quantile=\"0.999\"}", getMoveProcessingP999Micros());
+        for (DisconnectReason reason : DisconnectReason.values()) {
+            line(text, "ttt_disconnects_total{reason=\"" + reason.name().toLowerCase() + "\"}",
+                    disconnects[reason.ordinal()].sum());
+        }
+        return text.toString();
+    }
+
+    private static void line(StringBuilder text, String name, Object value) {
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server as tictactoe:type=ServerMetrics
+     */
+    public void registerJmx() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("tictactoe:type=ServerMetrics"));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Serves {@link #scrape()} at http://127.0.0.1:port/metrics on the HTTP server's own thread
+     *
+     * @param port the local port
+     * @return the running HTTP server, for callers that add their own pages
+     */
+    public HttpServer serveScrape(int port) throws IOException {
+        HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        serveText(http, "/metrics", this::scrape);
+        http.setExecutor(null);
+        http.start();
+        System.out.println("Metrics on http://127.0.0.1:" + port + "/metrics");
+        return http;
+    }
+
+    /**
+     * Serves freshly rendered plain text at the path
+     */
+    public static void serveText(HttpServer http, String path, Supplier<String> text) {
+        http.createContext(path, exchange -> {
+            byte[] body = text.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+}
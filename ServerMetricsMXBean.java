@@ -0,0 +1,46 @@
+/**
+ * Management view of {@link ServerMetrics}, registered as tictactoe:type=ServerMetrics.
+ * Times are in microseconds.
+ */
+public interface ServerMetricsMXBean {
+    long getActiveConnections();
+
+    int getActiveRooms();
+
+    int getMatchmakingQueueDepth();
+
+    long getMoves();
+
+    double getMovesPerSecond();
+
+    long getIllegalMoves();
+
+    long getThrottledLines();
+
+    long getMalformedLines();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    /**
+     * Connection flushes, each one state change's output handed to the transport
+     */
+    long getFlushes();
+
+    /**
+     * Write calls made on client sockets
+     */
+    long getSocketWrites();
+
+    double getMoveProcessingP50Micros();
+
+    double getMoveProcessingP99Micros();
+
+    double getMoveProcessingP999Micros();
+
+    /**
+     * Connections ended for the given {@link ServerMetrics.DisconnectReason} name
+     */
+    long disconnects(String reason);
+}
@@ -0,0 +1,89 @@
+import java.io.*;
+import java.net.Socket;
+
+/**
+ * Blocking transport: one reader task per socket; sends collect in a buffer until the next flush.
+ */
+public class SocketConnection implements Connection {
+    private static final int MAX_LINE = 4096;
+
+    private final Socket socket;
+    private final LineReader in;
+    private final OutputStream out;
+    private final ServerMetrics metrics;
+
+    public SocketConnection(Socket socket, ServerMetrics metrics) throws IOException {
+        this.socket = socket;
+        this.metrics = metrics;
+        this.in = new LineReader(socket.getInputStream(), MAX_LINE);
+        // Counts the buffer's writes to the socket, each of which is one syscall
+        this.out = new BufferedOutputStream(new FilterOutputStream(socket.getOutputStream()) {
+            @Override
+            public void write(byte[] data, int offset, int length) throws IOException {
+                metrics.socketWrite();
+                out.write(data, offset, length);
+            }
+        });
+    }
+
+    @Override
+    public void send(byte[] frame, int offset, int length) {
+        synchronized (out) {
+            try {
+                out.write(frame, offset, length);
+                metrics.bytesOut(length);
+            } catch (IOException e) {
+                // The reader sees the broken socket and reports the disconnect
+            }
+        }
+    }
+
+    @Override
+    public void flush() {
+        metrics.flushed();
+        synchronized (out) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                // As for send
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // ignore
+        }
+    }
+
+    /**
+     * Reads lines until the peer goes away, handing each to the server
+     *
+     * @param server the server dispatching lines to rooms
+     */
+    public void readLoop(Server server) {
+        Server.Player player = server.connected(this);
+        ServerMetrics.DisconnectReason reason = ServerMetrics.DisconnectReason.QUIT;
+        long counted = 0;
+        try {
+            int length;
+            while ((length = in.readLine()) >= 0) {
+                metrics.bytesIn(in.bytesRead() - counted);
+                counted = in.bytesRead();
+                server.received(player, in.buffer(), length);
+            }
+        } catch (LineReader.LineTooLongException e) {
+            reason = ServerMetrics.DisconnectReason.OVERSIZED_LINE;
+        } catch (IOException e) {
+            // Socket closed by us or reset by the peer
+            reason = ServerMetrics.DisconnectReason.IO_ERROR;
+        } finally {
+            close();
+            server.disconnected(player, reason);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Perfect play for 3x3 Tic-Tac-Toe.
+ * The whole game tree is solved once, when the class loads, with alpha-beta over a transposition table
+ * that folds the 8 board symmetries into one entry. The result is a best-move table indexed directly by
+ * {@link Bitboard} value, so a lookup is one array read. The table is never written after class
+ * initialisation and is safe to share across every game and thread.
+ */
+public final class Solver {
+    private static final int WIN = 100;
+    private static final byte EXACT = 0, LOWER = 1, UPPER = 2;
+
+    // SYMMETRIES[s][cell] is where cell lands under symmetry s
+    private static final int[][] SYMMETRIES = new int[8][Bitboard.CELLS];
+    // BEST_MOVE[board] is the cell to play, or -1 for finished or unreachable positions
+    private static final byte[] BEST_MOVE = new byte[1 << (2 * Bitboard.CELLS)];
+
+    // Only used while solving
+    private static Map<Integer, int[]> table = new HashMap<>();
+
+    static {
+        for (int s = 0; s < 8; s++) {
+            for (int cell = 0; cell < Bitboard.CELLS; cell++) {
+                int row = cell / 3, col = cell % 3;
+                // Four rotations, each optionally mirrored
+                int r = row, c = col;
+                for (int turn = 0; turn < (s & 3); turn++) {
+                    int t = r;
+                    r = c;
+                    c = 2 - t;
+                }
+                if (s >= 4) c = 2 - c;
+                SYMMETRIES[s][cell] = r * 3 + c;
+            }
+        }
+        Arrays.fill(BEST_MOVE, (byte) -1);
+        fillBestMoves(Bitboard.EMPTY, 'X');
+        table = null;
+    }
+
+    private Solver() {
+    }
+
+    /**
+     * Returns the best cell for the side to move, or -1 if the game is already over
+     *
+     * @param board a reachable position in {@link Bitboard} form
+     */
+    public static int bestMove(int board) {
+        return BEST_MOVE[board];
+    }
+
+    /**
+     * Forces the table to be built now rather than on the first bot move
+     */
+    public static void init() {
+        // Class initialisation does the work
+    }
+
+    private static void fillBestMoves(int board, char toMove) {
+        if (BEST_MOVE[board] != -1) return;
+        int best = -1, bestScore = Integer.MIN_VALUE;
+        char other = toMove == 'X' ? 'O' : 'X';
+        for (int cell = 0; cell < Bitboard.CELLS; cell++) {
+            if (!Bitboard.isEmpty(board, cell)) continue;
+            int child = Bitboard.place(board, cell, toMove);
+            int score = Bitboard.isWin(child, toMove) ? WIN : -search(child, other, -WIN - 1, WIN + 1);
+            if (score > bestScore) {
+                bestScore = score;
+                best = cell;
+            }
+        }
+        if (best < 0) return;
+        BEST_MOVE[board] = (byte) best;
+        for (int cell = 0; cell < Bitboard.CELLS; cell++) {
+            if (!Bitboard.isEmpty(board, cell)) continue;
+            int child = Bitboard.place(board, cell, toMove);
+            if (!Bitboard.isWin(child, toMove) && !Bitboard.isFull(child)) {
+                fillBestMoves(child, other);
+            }
+        }
+    }
+
+    /**
+     * Negamax with alpha-beta; scores are from the side to move, quicker wins score higher
+     */
+    private static int search(int board, char toMove, int alpha, int beta) {
+        if (Bitboard.isFull(board)) return 0;
+        int key = canonical(board);
+        int[] entry = table.get(key);
+        if (entry != null) {
+            if (entry[1] == EXACT) return entry[0];
+            if (entry[1] == LOWER && entry[0] >= beta) return entry[0];
+            if (entry[1] == UPPER && entry[0] <= alpha) return entry[0];
+        }
+        int alphaIn = alpha;
+        int depth = Integer.bitCount(Bitboard.occupied(board));
+        char other = toMove == 'X' ? 'O' : 'X';
+        int best = -WIN - 1;
+        for (int cell = 0; cell < Bitboard.CELLS && best < beta; cell++) {
+            if (!Bitboard.isEmpty(board, cell)) continue;
+            int child = Bitboard.place(board, cell, toMove);
+            int score = Bitboard.isWin(child, toMove) ? WIN - depth : -search(child, other, -beta, -Math.max(alpha, best));
+            if (score > best) best = score;
+        }
+        byte flag = best <= alphaIn ? UPPER : best >= beta ? LOWER : EXACT;
+        table.put(key, new int[]{best, flag});
+        return best;
+    }
+
+    /**
+     * Returns the smallest encoding among the board's 8 symmetric images
+     */
+    private static int canonical(int board) {
+        int min = Integer.MAX_VALUE;
+        for (int[] map : SYMMETRIES) {
+            int image = 0;
+            for (int cell = 0; cell < Bitboard.CELLS; cell++) {
+                char mark = Bitboard.markAt(board, cell);
+                if (mark != ' ') image = Bitboard.place(image, map[cell], mark);
+            }
+            min = Math.min(min, image);
+        }
+        return min;
+    }
+}
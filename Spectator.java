@@ -0,0 +1,106 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One viewer of a game room, fed through a bounded queue so a slow viewer can never hold up the players.
+ * The room hands every event to all its spectators as one shared, already-encoded frame; each spectator
+ * queues a reference and a writer task on the executor puts queued frames on the wire. When the queue is
+ * full the spectator drops everything queued and is marked stale; the room skips it until its writer has
+ * caught up, then sends it one SNAPSHOT in place of all it missed.
+ */
+public class Spectator {
+    // Most bytes left unwritten on the link before the writer waits; transports that buffer without
+    // blocking would otherwise take every frame at once and the queue bound would never apply
+    private static final int OUTBOUND_LIMIT = 64 * 1024;
+    private static final long OUTBOUND_WAIT_MILLIS = 10;
+
+    private final Connection connection;
+    private final Executor executor;
+    private final ArrayBlockingQueue<byte[]> queue;
+    // True while a writer task is scheduled or running
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private volatile boolean closeWhenDrained = false;
+
+    // Set once the room accepts the spectator
+    volatile GameRoom room;
+    // Frames were dropped; set by offer, cleared by the room's drainer when it sends the snapshot
+    volatile boolean stale = false;
+
+    /**
+     * @param capacity most frames queued before the spectator is dropped to a snapshot
+     */
+    public Spectator(Connection connection, Executor executor, int capacity) {
+        this.connection = connection;
+        this.executor = executor;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Queues a frame without blocking; the array is shared and must never be modified
+     *
+     * @return false if the queue was full, in which case everything queued was dropped
+     */
+    boolean offer(byte[] frame) {
+        if (!queue.offer(frame)) {
+            // Marked before the queue empties, so a writer that finds it empty also sees it is stale; the
+            // schedule covers a writer that has already given up, so the resync is always asked for
+            stale = true;
+            queue.clear();
+            schedule();
+            return false;
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * Closes the link once everything queued so far has been written
+     */
+    void closeAfterDrain() {
+        closeWhenDrained = true;
+        schedule();
+    }
+
+    private void schedule() {
+        if (writing.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        }
+    }
+
+    // Waits until the link has taken most of what was sent; false if interrupted
+    private boolean awaitWritten() {
+        try {
+            while (connection.pendingBytes() > OUTBOUND_LIMIT) {
+                Thread.sleep(OUTBOUND_WAIT_MILLIS);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writing.set(false);
+            return false;
+        }
+    }
+
+    private void drain() {
+        do {
+            byte[] frame;
+            while ((frame = queue.poll()) != null) {
+                connection.send(frame);
+                if (connection.pendingBytes() > OUTBOUND_LIMIT) {
+                    // Let the viewer catch up; meanwhile the queue fills and the room marks us stale
+                    connection.flush();
+                    if (!awaitWritten()) return;
+                }
+            }
+            connection.flush();
+            writing.set(false);
+        } while (!queue.isEmpty() && writing.compareAndSet(false, true));
+        if (closeWhenDrained) {
+            connection.close();
+        } else if (stale && room != null) {
+            // Caught up after dropping frames: ask the room for the current state
+            room.resync(this);
+        }
+    }
+}
@@ -4,51 +4,136 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.*;
-import java.net.Socket;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 /**
  * A two-player networked Tic-Tac-Toe game.
  * Player 1 ('X') starts. Connects to localhost:12345.
+ * The protocol lives in {@link GameClient}; this class only turns its events into Swing updates.
+ * <p>
+ * Server events arrive on the network thread, which never touches Swing: each event derives a new
+ * immutable {@link View} and publishes it. The EDT renders the newest view at most once a frame and
+ * changes only the buttons and labels that differ from what it last rendered, so a fast stream of
+ * updates, e.g. when spectating, or a large board costs no more than the screen can show.
  */
-public class TicTacToe {
+public class TicTacToe implements GameClient.Listener {
+    // Shortest time between two renders
+    private static final int FRAME_MILLIS = 16;
+
+    /**
+     * Everything the window shows about the game. Never changed once built; the with methods return copies.
+     */
+    private static final class View {
+        final int rows;
+        final int cols;
+        final int winLength;
+        // Row-major, ' ' for an empty cell
+        final char[] marks;
+        // A game is on, so empty cells take clicks
+        final boolean playing;
+        final boolean player1;
+        final String title;
+        final String message;
+        final int p1Wins;
+        final int p2Wins;
+        final int draws;
+        final String record;
+
+        View(int rows, int cols, int winLength, char[] marks, boolean playing, boolean player1, String title,
+             String message, int p1Wins, int p2Wins, int draws, String record) {
+            this.rows = rows;
+            this.cols = cols;
+            this.winLength = winLength;
+            this.marks = marks;
+            this.playing = playing;
+            this.player1 = player1;
+            this.title = title;
+            this.message = message;
+            this.p1Wins = p1Wins;
+            this.p2Wins = p2Wins;
+            this.draws = draws;
+            this.record = record;
+        }
+
+        // A new game on a board of the given shape, with the given marks
+        View withBoard(int rows, int cols, int winLength, char[] marks, boolean playing) {
+            return new View(rows, cols, winLength, marks, playing, player1, title, message, p1Wins, p2Wins, draws, record);
+        }
+
+        View withMark(int cell, char mark) {
+            char[] next = marks.clone();
+            next[cell] = mark;
+            return new View(rows, cols, winLength, next, playing, player1, title, message, p1Wins, p2Wins, draws, record);
+        }
+
+        View withPlaying(boolean playing) {
+            return new View(rows, cols, winLength, marks, playing, player1, title, message, p1Wins, p2Wins, draws, record);
+        }
+
+        View withPlayer1(boolean player1) {
+            return new View(rows, cols, winLength, marks, playing, player1, title, message, p1Wins, p2Wins, draws, record);
+        }
+
+        View withTitle(String title) {
+            return new View(rows, cols, winLength, marks, playing, player1, title, message, p1Wins, p2Wins, draws, record);
+        }
+
+        View withMessage(String message) {
+            return new View(rows, cols, winLength, marks, playing, player1, title, message, p1Wins, p2Wins, draws, record);
+        }
+
+        View withScores(int p1Wins, int p2Wins, int draws) {
+            return new View(rows, cols, winLength, marks, playing, player1, title, message, p1Wins, p2Wins, draws, record);
+        }
+
+        View withRecord(String record) {
+            return new View(rows, cols, winLength, marks, playing, player1, title, message, p1Wins, p2Wins, draws, record);
+        }
+
+        static char[] empty(int rows, int cols) {
+            char[] marks = new char[rows * cols];
+            Arrays.fill(marks, ' ');
+            return marks;
+        }
+    }
+
     // Game state
-    private char[][] gameBoard = new char[3][3];
     private String playerName = "";
-    private boolean gameActive = true;
-    private boolean myTurn = false;
-    private boolean isConnected = false;
+    // Watching someone else's game: no moves and no restart questions
+    private boolean spectating = false;
 
     // Network
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
-
-    // Player info
-    private String opponentName = "";
-    private boolean isPlayer1 = false;
-    private char myMark = ' ';
-    private char oppMark = ' ';
+    private GameClient client;
 
     // Composition: Own a JFrame instead of extending it
     private JFrame window;
 
-    // Scores
-    private int p1Wins = 0;
-    private int p2Wins = 0;
-    private int draws = 0;
+    // Newest view, published by any thread; the EDT renders it
+    private final AtomicReference<View> latest = new AtomicReference<>(
+            new View(3, 3, 3, View.empty(3, 3), false, false, "Tic Tac Toe", "Enter your player name...",
+                    0, 0, 0, "Record: -"));
+    // Set while a render is scheduled, so any number of updates in between cost one render
+    private final AtomicBoolean renderPending = new AtomicBoolean();
+    private Timer frameTimer;
+    // What the window shows now; EDT only
+    private View shown;
 
     // GUI components
     private JTextField nameField;
     private JButton submitButton;
     private JLabel messageLabel;
-    private JButton[][] buttons = new JButton[3][3];
+    private JPanel boardPanel;
+    // Row-major, so a cell index finds its button directly
+    private JButton[] buttons;
     private JLabel p1WinLabel;
     private JLabel p2WinLabel;
     private JLabel drawLabel;
+    private JLabel recordLabel;
     private JLabel timeLabel;
     private Timer timeTimer;
     private SimpleDateFormat timeFormat;
@@ -100,33 +185,15 @@ public class TicTacToe {
         messageLabel = new JLabel("Enter your player name...");
         messageLabel.setHorizontalAlignment(SwingConstants.CENTER);
 
-        // Board panel
-        JPanel boardPanel = new JPanel(new GridLayout(3, 3));
-        ActionListener boardListener = new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                for (int i = 0; i < 3; i++) {
-                    for (int j = 0; j < 3; j++) {
-                        if (e.getSource() == buttons[i][j]) {
-                            makePlayerMove(i, j);
-                        }
-                    }
-                }
-            }
-        };
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                buttons[i][j] = new JButton("");
-                buttons[i][j].setFont(new Font("Arial", Font.BOLD, 72));
-                buttons[i][j].setPreferredSize(new Dimension(150, 150));
-                buttons[i][j].addActionListener(boardListener);
-                gameBoard[i][j] = ' ';
-                boardPanel.add(buttons[i][j]);
-            }
-        }
+        // Board panel; rebuilt when the server starts a game on a different size
+        boardPanel = new JPanel();
+        shown = latest.get();
+        buildBoard(shown.rows, shown.cols);
+        frameTimer = new Timer(FRAME_MILLIS, e -> render());
+        frameTimer.setRepeats(false);
 
         // Scores panel
-        JPanel scoresPanel = new JPanel(new GridLayout(4, 1, 0, 10));
+        JPanel scoresPanel = new JPanel(new GridLayout(5, 1, 0, 10));
         JLabel scoreHeader = new JLabel("Score");
         scoreHeader.setHorizontalAlignment(SwingConstants.LEFT);
         p1WinLabel = new JLabel("P1 Wins: 0");
@@ -135,10 +202,14 @@ public class TicTacToe {
         p2WinLabel.setHorizontalAlignment(SwingConstants.LEFT);
         drawLabel = new JLabel("Draws: 0");
         drawLabel.setHorizontalAlignment(SwingConstants.LEFT);
+        // Career record, kept by the server across sessions
+        recordLabel = new JLabel("Record: -");
+        recordLabel.setHorizontalAlignment(SwingConstants.LEFT);
         scoresPanel.add(scoreHeader);
         scoresPanel.add(p1WinLabel);
         scoresPanel.add(p2WinLabel);
         scoresPanel.add(drawLabel);
+        scoresPanel.add(recordLabel);
         scoresPanel.setPreferredSize(new Dimension(150, 200));
 
         // Game center panel
@@ -188,15 +259,10 @@ public class TicTacToe {
         playerName = input;
         nameField.setEditable(false);
         submitButton.setEnabled(false);
-        window.setTitle("Tic Tac Toe - Player: " + playerName);
-        messageLabel.setText("WELCOME " + playerName.toUpperCase() + " - Waiting for opponent...");
+        update(v -> v.withTitle("Tic Tac Toe - Player: " + playerName)
+                .withMessage("WELCOME " + playerName.toUpperCase() + " - Waiting for opponent..."));
         try {
-            socket = new Socket("localhost", 12345);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            out.println(playerName);
-            isConnected = true;
-            new Thread(this::listenToServer).start();
+            listen(new GameClient("localhost", 12345, playerName, this));
         } catch (Exception e) {
             e.printStackTrace();
             JOptionPane.showMessageDialog(window, "Failed to connect to server.");
@@ -204,176 +270,238 @@ public class TicTacToe {
     }
 
     /**
-     * Listen for server messages
+     * Watches the game the named player is in instead of playing
      */
-    private void listenToServer() {
+    private void watch(String player) {
+        spectating = true;
+        nameField.setEditable(false);
+        submitButton.setEnabled(false);
+        update(v -> v.withTitle("Tic Tac Toe - Watching " + player).withMessage("Waiting for " + player + "'s game..."));
         try {
-            String line;
-            while (isConnected && (line = in.readLine()) != null) {
-                String[] parts = line.split(" ");
-                if (parts[0].equals("START")) {
-                    isPlayer1 = parts[1].equals("P1");
-                    myMark = isPlayer1 ? 'X' : 'O';
-                    oppMark = isPlayer1 ? 'O' : 'X';
-                    opponentName = parts[2];
-                    SwingUtilities.invokeLater(() -> {
-                        window.setTitle("Tic Tac Toe - " + (isPlayer1 ? "P1: " : "P2: ") + playerName + " vs " + opponentName);
-                        updateMessage("Game started!");
-                    });
-                } else if (parts[0].equals("UPDATE")) {
-                    int row = Integer.parseInt(parts[1]);
-                    int col = Integer.parseInt(parts[2]);
-                    char mark = parts[3].charAt(0);
-                    gameBoard[row][col] = mark;
-                    SwingUtilities.invokeLater(() -> {
-                        buttons[row][col].setText(String.valueOf(mark));
-                        buttons[row][col].setForeground(mark == 'X' ? Color.GREEN : Color.RED);
-                        buttons[row][col].setEnabled(false);
-                    });
-                } else if (parts[0].equals("MESSAGE")) {
-                    String msg = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length));
-                    if (msg.equals("Your turn to move.")) {
-                        myTurn = true;
-                    } else if (msg.equals("Wait for your opponent to move.")) {
-                        myTurn = false;
-                    } else if (msg.equals("Valid move, wait for your opponent.")) {
-                        myTurn = false;
-                    } else if (msg.equals("Your opponent has moved, now is your turn.")) {
-                        myTurn = true;
-                    }
-                    SwingUtilities.invokeLater(() -> updateMessage(msg));
-                } else if (parts[0].equals("GAMEOVER")) {
-                    gameActive = false;
-                    String type = parts[1];
-                    String resultMsg;
-                    if (type.equals("WIN")) {
-                        resultMsg = "You win!";
-                        if (isPlayer1) {
-                            p1Wins++;
-                        } else {
-                            p2Wins++;
-                        }
-                    } else if (type.equals("LOSE")) {
-                        resultMsg = "You lose!";
-                        if (isPlayer1) {
-                            p2Wins++;
-                        } else {
-                            p1Wins++;
-                        }
-                    } else { // DRAW
-                        resultMsg = "It's a draw!";
-                        draws++;
-                    }
-                    final String finalResultMsg = resultMsg;
-                    SwingUtilities.invokeLater(() -> {
-                        updateScores();
-                        disableButtons();
-                        int choice = JOptionPane.showConfirmDialog(window, finalResultMsg + "\n\nDo you want to restart the game?", "Game Over",
-                                JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
-                        if (choice == JOptionPane.YES_OPTION) {
-                            out.println("RESTART yes");
-                        } else {
-                            out.println("RESTART no");
-                        }
-                    });
-                } else if (parts[0].equals("RESET")) {
-                    // Reset state
-                    for (int i = 0; i < 3; i++) {
-                        for (int j = 0; j < 3; j++) {
-                            gameBoard[i][j] = ' ';
-                        }
-                    }
-                    gameActive = true;
-                    // Reset UI on EDT
-                    SwingUtilities.invokeLater(() -> {
-                        for (int i = 0; i < 3; i++) {
-                            for (int j = 0; j < 3; j++) {
-                                buttons[i][j].setText("");
-                                buttons[i][j].setEnabled(true);
-                            }
-                        }
-                    });
-                } else if (parts[0].equals("END") || parts[0].equals("OPPONENT_LEFT")) {
-                    String msg = String.join(" ", Arrays.copyOfRange(parts, 1, parts.length));
-                    SwingUtilities.invokeLater(() -> {
-                        JOptionPane.showMessageDialog(window, msg, "Game End", JOptionPane.INFORMATION_MESSAGE);
-                        disconnect();
-                    });
-                    return; // Exit the loop to avoid further reads
-                }
-            }
+            listen(GameClient.spectate("localhost", 12345, player, this));
         } catch (Exception e) {
             e.printStackTrace();
-        } finally {
+            JOptionPane.showMessageDialog(window, "Failed to connect to server.");
+        }
+    }
+
+    // Starts the network thread; every listener method below runs on it
+    private void listen(GameClient gameClient) {
+        client = gameClient;
+        new Thread(() -> {
+            client.run();
+            disconnect();
+        }).start();
+    }
+
+    @Override
+    public void started(String opponentName, boolean player1) {
+        Board board = client.board();
+        String title = spectating ? latest.get().title
+                : "Tic Tac Toe - " + (player1 ? "P1: " : "P2: ") + playerName + " vs " + opponentName;
+        update(v -> v.withBoard(board.rows(), board.cols(), board.winLength(), View.empty(board.rows(), board.cols()), true)
+                .withPlayer1(player1).withTitle(title).withMessage("Game started!"));
+    }
+
+    @Override
+    public void updated(int row, int col, char mark) {
+        update(v -> v.withMark(row * v.cols + col, mark));
+    }
+
+    @Override
+    public void message(int code, String text) {
+        update(v -> v.withMessage(text));
+    }
+
+    @Override
+    public void gameOver(int result) {
+        String resultMsg;
+        View view = latest.get();
+        int p1Wins = view.p1Wins;
+        int p2Wins = view.p2Wins;
+        int draws = view.draws;
+        if (result == Protocol.WIN) {
+            resultMsg = "You win!";
+            if (view.player1) {
+                p1Wins++;
+            } else {
+                p2Wins++;
+            }
+        } else if (result == Protocol.LOSE) {
+            resultMsg = "You lose!";
+            if (view.player1) {
+                p2Wins++;
+            } else {
+                p1Wins++;
+            }
+        } else { // DRAW
+            resultMsg = "It's a draw!";
+            draws++;
+        }
+        int finalP1Wins = p1Wins, finalP2Wins = p2Wins, finalDraws = draws;
+        update(v -> v.withPlaying(false).withScores(finalP1Wins, finalP2Wins, finalDraws));
+        if (spectating) {
+            // Scores are from P1's side, as the server sends them to spectators
+            update(v -> v.withMessage(result == Protocol.WIN ? "P1 wins!" : result == Protocol.LOSE ? "P2 wins!" : "It's a draw!"));
+            return;
+        }
+        SwingUtilities.invokeLater(() -> {
+            render();
+            int choice = JOptionPane.showConfirmDialog(window, resultMsg + "\n\nDo you want to restart the game?", "Game Over",
+                    JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+            client.restart(choice == JOptionPane.YES_OPTION);
+        });
+    }
+
+    @Override
+    public void reset() {
+        update(v -> v.withBoard(v.rows, v.cols, v.winLength, View.empty(v.rows, v.cols), true));
+    }
+
+    @Override
+    public void ended(String text) {
+        SwingUtilities.invokeLater(() -> {
+            render();
+            JOptionPane.showMessageDialog(window, text, "Game End", JOptionPane.INFORMATION_MESSAGE);
             disconnect();
+        });
+    }
+
+    @Override
+    public void stats(int wins, int losses, int draws) {
+        update(v -> v.withRecord("Record: " + wins + "W " + losses + "L " + draws + "D"));
+    }
+
+    @Override
+    public void reconnecting(int attempt, long delayMillis) {
+        update(v -> v.withMessage("Connection lost, reconnecting (attempt " + attempt + ")..."));
+    }
+
+    @Override
+    public void restored(boolean myTurn, int result, int wins, int losses, int draws) {
+        Board board = client.board();
+        char[] marks = new char[board.rows() * board.cols()];
+        for (int i = 0; i < board.rows(); i++) {
+            for (int j = 0; j < board.cols(); j++) {
+                marks[i * board.cols() + j] = board.markAt(board.cell(i, j));
+            }
+        }
+        String message = spectating ? "Watching." : myTurn ? "Reconnected. Your turn to move." : "Reconnected. Wait for your opponent to move.";
+        update(v -> v.withBoard(board.rows(), board.cols(), board.winLength(), marks, result == 0)
+                .withScores(v.player1 ? wins : losses, v.player1 ? losses : wins, draws).withMessage(message));
+        if (result != 0 && !spectating) {
+            SwingUtilities.invokeLater(() -> {
+                render();
+                int choice = JOptionPane.showConfirmDialog(window, "Reconnected after the game ended.\n\nDo you want to restart the game?",
+                        "Game Over", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
+                client.restart(choice == JOptionPane.YES_OPTION);
+            });
         }
     }
 
     /**
      * Processes the player's move at the specified position
      *
-     * @param row the row index (0-2)
-     * @param col the column index (0-2)
+     * @param row the row index
+     * @param col the column index
      */
     private void makePlayerMove(int row, int col) {
-        if (!gameActive || !myTurn || gameBoard[row][col] != ' ') {
-            return; // Invalid move
+        View view = latest.get();
+        if (client == null || spectating || !view.playing || view.marks[row * view.cols + col] != ' ') {
+            return;
         }
-        out.println("MOVE " + row + " " + col);
+        // The client also drops moves out of turn
+        client.move(row, col);
     }
 
     /**
-     * Updates the score labels
+     * Publishes a change to the view from any thread, and has the EDT render it within a frame
+     *
+     * @param change derives the new view from the newest one; may run more than once
      */
-    private void updateScores() {
-        p1WinLabel.setText("P1 Wins: " + p1Wins);
-        p2WinLabel.setText("P2 Wins: " + p2Wins);
-        drawLabel.setText("Draws: " + draws);
+    private void update(UnaryOperator<View> change) {
+        latest.updateAndGet(change);
+        if (renderPending.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(frameTimer::start);
+        }
     }
 
     /**
-     * Updates the message label
-     *
-     * @param message the new message text
+     * Brings the window in line with the newest view, touching only what changed since the last render
      */
-    private void updateMessage(String message) {
-        messageLabel.setText(message);
+    private void render() {
+        renderPending.set(false);
+        View view = latest.get();
+        boolean rebuilt = view.rows != shown.rows || view.cols != shown.cols;
+        if (rebuilt) {
+            buildBoard(view.rows, view.cols);
+        }
+        boolean playingChanged = rebuilt || view.playing != shown.playing;
+        if (view.marks != shown.marks || playingChanged) {
+            for (int cell = 0; cell < buttons.length; cell++) {
+                char mark = view.marks[cell];
+                JButton button = buttons[cell];
+                if (rebuilt || mark != shown.marks[cell]) {
+                    button.setText(mark == ' ' ? "" : String.valueOf(mark));
+                    button.setForeground(mark == 'X' ? Color.GREEN : Color.RED);
+                    button.setEnabled(mark == ' ' && view.playing);
+                } else if (playingChanged) {
+                    button.setEnabled(mark == ' ' && view.playing);
+                }
+            }
+        }
+        if (!view.title.equals(shown.title)) {
+            window.setTitle(view.title);
+        }
+        if (!view.message.equals(shown.message)) {
+            messageLabel.setText(view.message);
+        }
+        if (view.p1Wins != shown.p1Wins || view.p2Wins != shown.p2Wins || view.draws != shown.draws) {
+            p1WinLabel.setText("P1 Wins: " + view.p1Wins);
+            p2WinLabel.setText("P2 Wins: " + view.p2Wins);
+            drawLabel.setText("Draws: " + view.draws);
+        }
+        if (!view.record.equals(shown.record)) {
+            recordLabel.setText(view.record);
+        }
+        shown = view;
     }
 
     /**
-     * Disables all board buttons
+     * Lays out a fresh grid of board buttons, sized to fit the same area as the 3x3 board
+     *
+     * @param rows board rows
+     * @param cols board columns
      */
-    private void disableButtons() {
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                buttons[i][j].setEnabled(false);
+    private void buildBoard(int rows, int cols) {
+        int cellSize = 450 / Math.max(rows, cols);
+        boardPanel.removeAll();
+        boardPanel.setLayout(new GridLayout(rows, cols));
+        buttons = new JButton[rows * cols];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                int row = i, col = j;
+                JButton button = new JButton("");
+                button.setFont(new Font("Arial", Font.BOLD, cellSize / 2));
+                button.setMargin(new Insets(0, 0, 0, 0));
+                button.setPreferredSize(new Dimension(cellSize, cellSize));
+                // Each button knows its own cell, so a click needs no search
+                button.addActionListener(e -> makePlayerMove(row, col));
+                buttons[i * cols + j] = button;
+                boardPanel.add(button);
             }
         }
+        boardPanel.revalidate();
+        boardPanel.repaint();
     }
 
     /**
      * Disconnects from server
      */
     private void disconnect() {
-        if (out != null) {
-            out.println("DISCONNECT");
-            out.close();
+        if (client != null) {
+            client.disconnect();
         }
-        if (in != null) {
-            try {
-                in.close();
-            } catch (IOException ex) {
-                // ignore
-            }
-        }
-        if (socket != null) {
-            try {
-                socket.close();
-            } catch (IOException ex) {
-                // ignore
-            }
-        }
-        isConnected = false;
         System.exit(0);
     }
 
@@ -381,10 +509,11 @@ public class TicTacToe {
      * Shows the instructions
      */
     private void showInstructions() {
+        View view = latest.get();
         String instructions = "Tic-Tac-Toe is a two-player game over network.\n" +
                 "• Players alternate turns, P1 ('X') starts.\n" +
-                "• Mark empty spaces on the 3x3 board.\n" +
-                "• First to three in a row/column/diagonal wins.\n" +
+                "• Mark empty spaces on the " + view.rows + "x" + view.cols + " board.\n" +
+                "• First to " + view.winLength + " in a row/column/diagonal wins.\n" +
                 "• Valid move: empty cell, your turn.\n" +
                 "• Game ends in win, loss, or draw.\n" +
                 "• Restart or exit after each round.\n" +
@@ -396,11 +525,15 @@ public class TicTacToe {
     /**
      * Launch the application.
      *
-     * @param args command-line arguments (unused)
+     * @param args optional "--spectate player" to watch that player's game instead of playing
      */
     public static void main(String[] args) {
+        int spectateArg = Arrays.asList(args).indexOf("--spectate");
         SwingUtilities.invokeLater(() -> {
-            new TicTacToe();
+            TicTacToe game = new TicTacToe();
+            if (spectateArg >= 0 && spectateArg + 1 < args.length) {
+                game.watch(args[spectateArg + 1]);
+            }
         });
     }
 }
@@ -0,0 +1,111 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel: one thread serves any number of timeouts, so per-connection deadlines cost no
+ * thread and no heap-ordered queue. Time is cut into ticks; a timeout goes into the bucket its deadline
+ * tick hashes to, and each tick the thread walks one bucket, firing what is due and leaving timeouts
+ * that are a full turn or more away. Scheduling and cancelling are O(1); a timeout fires up to one tick
+ * late. Tasks run on the wheel's thread and must not block.
+ */
+public class TimerWheel {
+    /**
+     * A scheduled task; cancel it once it is no longer wanted
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        // Next in the bucket; only the wheel's thread touches it
+        private Timeout next;
+        private volatile boolean cancelled = false;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Stops the task from running, if it has not yet; dropped from its bucket when the wheel next passes
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long start = System.nanoTime();
+    // Scheduled by other threads, put in buckets by the wheel's thread at the next tick
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Starts the wheel's daemon thread
+     *
+     * @param name        thread name
+     * @param tickMillis  timer resolution
+     * @param bucketCount buckets in the wheel, rounded up to a power of two; one turn is this many ticks
+     */
+    public TimerWheel(String name, long tickMillis, int bucketCount) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.buckets = new Timeout[Integer.highestOneBit(Math.max(1, bucketCount - 1)) << 1];
+        this.mask = buckets.length - 1;
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs the task on the wheel's thread once the delay has passed
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long due = System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        Timeout timeout = new Timeout(task, (due + tickNanos - 1) / tickNanos);
+        added.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        long tick = 0;
+        while (true) {
+            long wait;
+            while ((wait = start + (tick + 1) * tickNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            tick++;
+            Timeout timeout;
+            while ((timeout = added.poll()) != null) {
+                if (timeout.cancelled) continue;
+                // Already due: the current bucket, walked right below
+                int bucket = (int) (Math.max(timeout.deadline, tick) & mask);
+                timeout.next = buckets[bucket];
+                buckets[bucket] = timeout;
+            }
+            expire((int) (tick & mask), tick);
+        }
+    }
+
+    // Fires and unlinks every due timeout in the bucket, and unlinks cancelled ones
+    private void expire(int bucket, long tick) {
+        Timeout previous = null;
+        Timeout timeout = buckets[bucket];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.cancelled || timeout.deadline <= tick) {
+                if (previous == null) buckets[bucket] = next; else previous.next = next;
+                timeout.next = null;
+                if (!timeout.cancelled) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } else {
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+}
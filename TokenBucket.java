@@ -0,0 +1,38 @@
+/**
+ * Token bucket rate limiter: lets through bursts up to its capacity, then a steady rate. Not thread-safe;
+ * a connection's bucket is only used by the thread reading that connection.
+ */
+public class TokenBucket {
+    private final double capacity;
+    private final double perNano;
+    private double tokens;
+    private long refilledAt;
+
+    /**
+     * Starts full
+     *
+     * @param capacity  largest burst
+     * @param perSecond steady rate
+     * @param now       System.nanoTime()
+     */
+    public TokenBucket(int capacity, double perSecond, long now) {
+        this.capacity = capacity;
+        this.perNano = perSecond / 1e9;
+        this.tokens = capacity;
+        this.refilledAt = now;
+    }
+
+    /**
+     * Takes one token if there is one
+     *
+     * @param now System.nanoTime()
+     * @return false if the caller is over its rate
+     */
+    public boolean tryTake(long now) {
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * perNano);
+        refilledAt = now;
+        if (tokens < 1) return false;
+        tokens--;
+        return true;
+    }
+}